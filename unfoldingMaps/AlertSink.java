@@ -0,0 +1,11 @@
+package unfoldingMaps;
+
+/** Receives the alerts emitted by a ThreatAlertPipeline
+ *  Implement this to listen for alerts in process.
+ *  @author ER
+ */
+public interface AlertSink {
+
+	/* Called on the pipeline's worker thread for every alert */
+	public void alert(ThreatAlert alert);
+}
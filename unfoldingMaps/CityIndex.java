@@ -0,0 +1,127 @@
+package unfoldingMaps;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** Spatial index over the city markers
+ *  Buckets cities into a grid of latitude/longitude cells so that a
+ *  distance query only checks the cities in nearby cells.
+ *  @author ER
+ */
+public class CityIndex {
+
+	// Size of a grid cell in degrees
+	public static final float CELL_DEGREES = 5;
+
+	// Approximate length of one degree of latitude
+	private static final double KM_PER_DEGREE = 111.2;
+
+	private static final int ROWS = (int)Math.ceil(180 / CELL_DEGREES);
+	private static final int COLS = (int)Math.ceil(360 / CELL_DEGREES);
+
+	// The indexed city markers
+	private List<Marker> cityMarkers;
+
+	// Indices into cityMarkers for each grid cell, row by row
+	private int[][] cells;
+
+	/* Constructor builds the grid once */
+	public CityIndex(List<Marker> cityMarkers) {
+		this.cityMarkers = cityMarkers;
+		List<List<Integer>> buckets = new ArrayList<List<Integer>>();
+		for (int i = 0; i < ROWS * COLS; i++) {
+			buckets.add(new ArrayList<Integer>());
+		}
+		for (int i = 0; i < cityMarkers.size(); i++) {
+			Location loc = cityMarkers.get(i).getLocation();
+			buckets.get(row(loc.getLat()) * COLS + col(loc.getLon())).add(i);
+		}
+		cells = new int[ROWS * COLS][];
+		for (int c = 0; c < cells.length; c++) {
+			List<Integer> bucket = buckets.get(c);
+			cells[c] = new int[bucket.size()];
+			for (int i = 0; i < bucket.size(); i++) {
+				cells[c][i] = bucket.get(i);
+			}
+		}
+	}
+
+	/* Returns the city markers */
+	public List<Marker> getCityMarkers() {
+		return cityMarkers;
+	}
+
+	/* Returns the indices of the cities within km of location */
+	public int[] getCitiesWithin(Location location, double km) {
+		float lat = location.getLat();
+		float lon = location.getLon();
+		double dLat = km / KM_PER_DEGREE;
+		int rowFrom = row(lat - dLat);
+		int rowTo = row(lat + dLat);
+
+		// Cells get narrower towards the poles, so widen the longitude range
+		// using the latitude furthest from the equator that is searched
+		double maxLat = Math.min(90, Math.abs(lat) + dLat);
+		double cos = Math.cos(Math.toRadians(maxLat));
+		int colFrom = 0;
+		int colTo = COLS - 1;
+		boolean wholeRow = true;
+		if (cos > 1e-6) {
+			double dLon = km / (KM_PER_DEGREE * cos);
+			if (dLon < 180) {
+				colFrom = (int)Math.floor((lon - dLon + 180) / CELL_DEGREES);
+				colTo = (int)Math.floor((lon + dLon + 180) / CELL_DEGREES);
+				wholeRow = colTo - colFrom + 1 >= COLS;
+			}
+		}
+
+		List<Integer> found = new ArrayList<Integer>();
+		for (int r = rowFrom; r <= rowTo; r++) {
+			if (wholeRow) {
+				addWithin(found, r, 0, COLS - 1, location, km);
+			}
+			else {
+				// Wrap around the antimeridian
+				for (int c = colFrom; c <= colTo; c++) {
+					addWithin(found, r, ((c % COLS) + COLS) % COLS, location, km);
+				}
+			}
+		}
+		int[] indices = new int[found.size()];
+		for (int i = 0; i < indices.length; i++) {
+			indices[i] = found.get(i);
+		}
+		return indices;
+	}
+
+	/* Adds the cities of the cells in a row range that are within km */
+	private void addWithin(List<Integer> found, int r, int colFrom, int colTo, Location location, double km) {
+		for (int c = colFrom; c <= colTo; c++) {
+			addWithin(found, r, c, location, km);
+		}
+	}
+
+	/* Adds the cities of one cell that are within km */
+	private void addWithin(List<Integer> found, int r, int c, Location location, double km) {
+		for (int i : cells[r * COLS + c]) {
+			if (cityMarkers.get(i).getDistanceTo(location) <= km) {
+				found.add(i);
+			}
+		}
+	}
+
+	/* Returns the grid row of a latitude, clamped to the grid */
+	private static int row(double lat) {
+		int r = (int)Math.floor((lat + 90) / CELL_DEGREES);
+		return Math.max(0, Math.min(ROWS - 1, r));
+	}
+
+	/* Returns the grid column of a longitude, clamped to the grid */
+	private static int col(double lon) {
+		int c = (int)Math.floor((lon + 180) / CELL_DEGREES);
+		return Math.max(0, Math.min(COLS - 1, c));
+	}
+}
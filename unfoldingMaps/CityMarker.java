@@ -62,18 +62,33 @@ public class CityMarker extends CommonMarker {
 		pg.popStyle();
 	}
 	
+	/* Returns the box drawn by showTitle */
+	public float[] getLabelBounds(PGraphics pg, float x, float y) {
+		pg.pushStyle();
+		pg.textSize(12);
+		float width = Math.max(pg.textWidth(getCity() + " " + getCountry() + " "),
+				pg.textWidth("Pop: " + getPopulation() + " Million")) + 6;
+		pg.popStyle();
+		return new float[] {x, y-TRI_SIZE-39, width, 39};
+	}
+	
+	/* Cities are labelled by population */
+	public float getLabelPriority() {
+		return getPopulation();
+	}
+	
 	/* Returns the city name */
-	private String getCity(){
+	public String getCity(){
 		return getStringProperty("name");
 	}
 	
 	/* Returns the country name */
-	private String getCountry(){
+	public String getCountry(){
 		return getStringProperty("country");
 	}
 	
 	/* Returns the city's population */
-	private float getPopulation(){
+	public float getPopulation(){
 		return Float.parseFloat(getStringProperty("population"));
 	}
 }
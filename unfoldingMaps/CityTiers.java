@@ -0,0 +1,152 @@
+package unfoldingMaps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.marker.MarkerManager;
+
+/** Population tiered level of detail for the city markers
+ *  Cities are bucketed once by their "population" property. Each tier has
+ *  its own MarkerManager so that tiers too small for the zoom level are not
+ *  drawn at all, and the cities that are visible at each zoom level are
+ *  prepared up front so hit tests look them up instead of filtering.
+ *  @author ER
+ */
+public class CityTiers {
+
+	// Smallest population of each tier in millions, largest tier first
+	public static final float[] TIER_POPULATION = {1, 0.25f, 0.05f, 0};
+	// Lowest zoom level each tier is drawn at, for online tiles
+	public static final int[] ONLINE_MIN_ZOOM = {0, 4, 5, 6};
+	// The offline tiles only go up to zoom level 3, so every tier
+	// must be shown by then or its cities could never be reached
+	public static final int[] OFFLINE_MIN_ZOOM = {0, 0, 2, 3};
+	
+	// Lowest zoom level each tier is drawn at
+	private int[] minZoom;
+
+	// Cities in each tier
+	private List<List<Marker>> tiers = new ArrayList<List<Marker>>();
+
+	// visible.get(k) holds the cities of the first k tiers, largest city first
+	private List<List<Marker>> visible = new ArrayList<List<Marker>>();
+
+	// One marker manager per tier, once added to a map
+	private List<MarkerManager<Marker>> managers = new ArrayList<MarkerManager<Marker>>();
+
+	// Tier of each city, by its index in the city marker list
+	private int[] cityTier;
+
+	// Number of tiers currently shown
+	private int shown;
+
+	/* Constructor buckets the cities into tiers
+	 * minZoom holds the lowest zoom level each tier is drawn at */
+	public CityTiers(List<Marker> cityMarkers, int[] minZoom) {
+		this.minZoom = minZoom;
+		List<Marker> sorted = new ArrayList<Marker>(cityMarkers);
+		Collections.sort(sorted, new Comparator<Marker>() {
+			public int compare(Marker a, Marker b) {
+				return Float.compare(((CityMarker)b).getPopulation(), ((CityMarker)a).getPopulation());
+			}
+		});
+		for (int t = 0; t < TIER_POPULATION.length; t++) {
+			tiers.add(new ArrayList<Marker>());
+		}
+		for (Marker m : sorted) {
+			tiers.get(tierOf(((CityMarker)m).getPopulation())).add(m);
+		}
+
+		// As the cities are sorted, each prefix of tiers is a prefix of sorted
+		int end = 0;
+		visible.add(Collections.<Marker>emptyList());
+		for (List<Marker> tier : tiers) {
+			end += tier.size();
+			visible.add(Collections.unmodifiableList(sorted.subList(0, end)));
+		}
+		shown = tierCount(0);
+
+		cityTier = new int[cityMarkers.size()];
+		for (int i = 0; i < cityTier.length; i++) {
+			cityTier[i] = tierOf(((CityMarker)cityMarkers.get(i)).getPopulation());
+		}
+	}
+
+	/* Adds one marker manager per tier to the map */
+	public void addTo(UnfoldingMap map) {
+		for (int t = 0; t < tiers.size(); t++) {
+			MarkerManager<Marker> manager = new MarkerManager<Marker>(tiers.get(t));
+			if (t >= shown) {
+				manager.disableDrawing();
+			}
+			managers.add(manager);
+			map.addMarkerManager(manager);
+		}
+	}
+
+	/* Shows the tiers for the zoom level
+	 * Returns true if the visible cities changed */
+	public boolean update(int zoomLevel) {
+		int count = tierCount(zoomLevel);
+		if (count == shown) {
+			return false;
+		}
+		for (int t = 0; t < managers.size(); t++) {
+			if (t < count) {
+				managers.get(t).enableDrawing();
+			}
+			else {
+				managers.get(t).disableDrawing();
+			}
+		}
+		shown = count;
+		return true;
+	}
+
+	/* Returns the cities currently shown, largest city first */
+	public List<Marker> getVisible() {
+		return visible.get(shown);
+	}
+
+	/* Returns the tier of the city at an index of the city marker list */
+	public int getTierOfCity(int index) {
+		return cityTier[index];
+	}
+	
+	/* Returns the number of tiers */
+	public int getTierTotal() {
+		return tiers.size();
+	}
+	
+	/* Returns the cities in a tier */
+	public List<Marker> getTier(int tier) {
+		return tiers.get(tier);
+	}
+
+	/* Shows every tier whatever the zoom level */
+	public void showAll() {
+		update(Integer.MAX_VALUE);
+	}
+	
+	/* Returns the number of tiers shown at a zoom level */
+	public int tierCount(int zoomLevel) {
+		int count = 0;
+		while (count < minZoom.length && minZoom[count] <= zoomLevel) {
+			count++;
+		}
+		return count;
+	}
+
+	/* Returns the tier of a population in millions */
+	private static int tierOf(float population) {
+		int t = 0;
+		while (t < TIER_POPULATION.length - 1 && population < TIER_POPULATION[t]) {
+			t++;
+		}
+		return t;
+	}
+}
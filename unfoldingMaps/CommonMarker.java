@@ -14,6 +14,9 @@ public abstract class CommonMarker extends SimplePointMarker {
 	// Records whether this marker has been clicked (most recently)
 	protected boolean clicked = false;
 	
+	// Records whether the label layout chose to show this marker's title
+	protected boolean labelled = false;
+	
 	/* Constructor overrides the super class's location */
 	public CommonMarker(Location location) {
 		super(location);
@@ -34,12 +37,22 @@ public abstract class CommonMarker extends SimplePointMarker {
 		clicked = state;
 	}
 	
+	/* Getter method for labelled field */
+	public boolean getLabelled() {
+		return labelled;
+	}
+	
+	/* Setter method for labelled field */
+	public void setLabelled(boolean state) {
+		labelled = state;
+	}
+	
 	/* Method to draw markers
 	 * Calls drawMarker and showTitle abstract methods implemented in subclasses */
 	public void draw(PGraphics pg, float x, float y) {
 		if (!hidden) {
 			drawMarker(pg, x, y);
-			if (selected) {
+			if (selected || labelled) {
 				showTitle(pg, x, y);
 			}
 		}
@@ -50,4 +63,12 @@ public abstract class CommonMarker extends SimplePointMarker {
 	
 	/* Abstract method to be implemented in subclasses */
 	public abstract void showTitle(PGraphics pg, float x, float y);
+	
+	/* Abstract method to be implemented in subclasses
+	 * Returns the box showTitle draws in as {left, top, width, height} */
+	public abstract float[] getLabelBounds(PGraphics pg, float x, float y);
+	
+	/* Abstract method to be implemented in subclasses
+	 * Markers with a higher priority are labelled first */
+	public abstract float getLabelPriority();
 }
\ No newline at end of file
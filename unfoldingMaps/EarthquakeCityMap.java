@@ -1,8 +1,17 @@
 package unfoldingMaps;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
 
 import de.fhpotsdam.unfolding.UnfoldingMap;
 import de.fhpotsdam.unfolding.data.Feature;
@@ -15,7 +24,6 @@ import de.fhpotsdam.unfolding.marker.MultiMarker;
 import de.fhpotsdam.unfolding.providers.Google;
 import de.fhpotsdam.unfolding.providers.MBTilesMapProvider;
 import de.fhpotsdam.unfolding.utils.MapUtils;
-import module6.EarthquakeMarker;
 import parsing.ParseFeed;
 import processing.core.PApplet;
 
@@ -40,26 +48,56 @@ public class EarthquakeCityMap extends PApplet {
 	public static String mbTilesString = "blankLight-1-3.mbtiles";
 	
 	//feed with magnitude 2.5+ Earthquakes
-	private String earthquakesURL = "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_week.atom";
+	protected String earthquakesURL = "https://earthquake.usgs.gov/earthquakes/feed/v1.0/summary/2.5_week.atom";
 	
 	// The files containing city names/info and country names/info
-	private String cityFile = "city-data.json";
+	protected String cityFile = "city-data.json";
 	private String countryFile = "countries.geo.json";
 	
 	// The map
-	private static UnfoldingMap map;
+	protected UnfoldingMap map;
+	
+	// Shared render context handed to the earthquake markers
+	private MapContext mapContext;
 	
 	// Markers for each city
-	private static List<Marker> cityMarkers;
+	protected List<Marker> cityMarkers;
+	// Cities bucketed by population, only the tiers for the zoom level are shown
+	protected CityTiers cityTiers;
 	// Markers for each earthquake
-	private List<Marker> quakeMarkers;
+	protected List<Marker> quakeMarkers;
 
 	// A List of country markers
 	private List<Marker> countryMarkers;
 	
+	// Sends an alert for each new earthquake listing the cities it threatens
+	private ThreatAlertPipeline alertPipeline;
+	
+	// Minutes between polls of the earthquake feed for new quakes
+	private static final int POLL_MINUTES = 5;
+	// Polls the feed and classifies new earthquakes off the render thread
+	private ScheduledExecutorService ingestExecutor;
+	// Earthquakes already known, only used on the ingest thread
+	private Set<String> seenQuakes = new HashSet<String>();
+	// Classified earthquakes waiting to join the map on the next frame
+	private Queue<EarthquakeMarker> arrivedQuakes = new ConcurrentLinkedQueue<EarthquakeMarker>();
+	
+	// Places labels for many markers at once when declutter is on
+	private LabelLayout labelLayout;
+	// Indices of the quake and city layers in labelLayout
+	private int quakeLabelLayer;
+	private int cityLabelLayer;
+	private boolean declutter = false;
+	
+	// Records the session to a file while recording is on
+	private InteractionRecorder recorder;
+	// The view last recorded, to notice pans and zooms
+	private int recordedZoom;
+	private float recordedLat, recordedLon;
+	
 	// Last clicked/ hovered over
-	private CommonMarker lastSelected;
-	private CommonMarker lastClicked;
+	protected CommonMarker lastSelected;
+	protected CommonMarker lastClicked;
 	
 	// Variable for sortAndPrit method
 	private int numToPrint;
@@ -70,6 +108,56 @@ public class EarthquakeCityMap extends PApplet {
 	public void setup() {		
 		// 1.Initialises canvas and map tiles
 		size(900, 700, OPENGL);
+		createMap();
+		
+		// 2. Reads in earthquake data and geometric properties
+		loadCountries();
+		loadCities();
+		loadQuakes(readQuakes());
+
+	    // Alerts for earthquakes that arrive after startup, see ingestQuakes
+	    // The feed read above is already known, so it raises no alerts
+	    alertPipeline = new ThreatAlertPipeline(mapContext.getCityIndex());
+	    alertPipeline.addSink(new LogAlertSink());
+	    alertPipeline.start();
+	    for (Marker m : quakeMarkers) {
+	    	seenQuakes.add(quakeKey((String)m.getProperty("title"), m.getLocation()));
+	    }
+	    startPolling();
+
+	    // to use for debugging
+	    printQuakes();
+	 		
+	    // 3. Adds markers to map
+	    // countryMarkers are used for their geometric properties, not added to map
+	    map.addMarkers(quakeMarkers);
+	    cityTiers.addTo(map);
+	    
+	    // Labels quakes by magnitude, then cities by population
+	    labelLayout = new LabelLayout(map, 200, 50, 650, 600);
+	    quakeLabelLayer = labelLayout.addLayer(quakeMarkers);
+	    // CityTiers keeps the cities sorted by population already
+	    cityLabelLayer = labelLayout.addSortedLayer(cityTiers.getVisible());
+	    
+	    // Calls method sortAndPrint
+	    numToPrint = 5;
+	    sortAndPrint(numToPrint);
+	    
+	}
+	
+	/* Drops the loaded cities and earthquakes and everything built from them,
+	 * so that the memory can be reclaimed before loading again */
+	protected void clearData() {
+		cityMarkers = null;
+		quakeMarkers = null;
+		mapContext = null;
+		cityTiers = null;
+		lastSelected = null;
+		lastClicked = null;
+	}
+	
+	/* Creates the map and its tile provider */
+	protected void createMap() {
 		if (offline) {
 		    map = new UnfoldingMap(this, 200, 50, 650, 600, new MBTilesMapProvider(mbTilesString));
 		    earthquakesURL = "2.5_week.atom";  // The same feed, but saved August 7, 2015
@@ -80,55 +168,140 @@ public class EarthquakeCityMap extends PApplet {
 		    //earthquakesURL = "2.5_week.atom";
 		}
 		MapUtils.createDefaultEventDispatcher(this, map);
-		
-		
-		// 2. Reads in earthquake data and geometric properties
-	    //    load country features and markers
+	}
+	
+	/* Loads country features and markers */
+	protected void loadCountries() {
 		List<Feature> countries = GeoJSONReader.loadData(this, countryFile);
 		countryMarkers = MapUtils.createSimpleMarkers(countries);
-		
-		//  Reads in city data
+	}
+	
+	/* Reads in city data and creates the render context for the cities */
+	protected void loadCities() {
 		List<Feature> cities = GeoJSONReader.loadData(this, cityFile);
 		cityMarkers = new ArrayList<Marker>();
 		for(Feature city : cities) {
 		  cityMarkers.add(new CityMarker(city));
 		}
-	    
-		// Reads in earthquake RSS feed
-	    List<PointFeature> earthquakes = ParseFeed.parseEarthquake(this, earthquakesURL);
+		mapContext = new MapContext(this, map, cityMarkers);
+		cityTiers = new CityTiers(cityMarkers,
+				offline ? CityTiers.OFFLINE_MIN_ZOOM : CityTiers.ONLINE_MIN_ZOOM);
+		mapContext.setCityTiers(cityTiers);
+	}
+	
+	/* Reads in earthquake RSS feed */
+	protected List<PointFeature> readQuakes() {
+	    return ParseFeed.parseEarthquake(this, earthquakesURL);
+	}
+	
+	/* Creates a land or ocean marker for each earthquake */
+	protected void loadQuakes(List<PointFeature> earthquakes) {
 	    quakeMarkers = new ArrayList<Marker>();
 	    
 	    for(PointFeature feature : earthquakes) {
-		  //check if LandQuake
-		  if(isLand(feature)) {
-		    quakeMarkers.add(new LandQuakeMarker(feature));
-		  }
-		  // OceanQuakes
-		  else {
-		    quakeMarkers.add(new OceanQuakeMarker(feature));
-		  }
+		  quakeMarkers.add(createQuakeMarker(feature));
 	    }
-
-	    // to use for debugging
-	    printQuakes();
-	 		
-	    // 3. Adds markers to map
-	    // countryMarkers are used for their geometric properties, not added to map
-	    map.addMarkers(quakeMarkers);
-	    map.addMarkers(cityMarkers);
-	    
-	    // Calls method sortAndPrint
-	    numToPrint = 5;
-	    sortAndPrint(numToPrint);
-	    
+	}
+	
+	/* Creates a land or ocean marker for one earthquake */
+	private EarthquakeMarker createQuakeMarker(PointFeature feature) {
+		//check if LandQuake
+		if(isLand(feature)) {
+			return new LandQuakeMarker(feature, mapContext);
+		}
+		// OceanQuakes
+		return new OceanQuakeMarker(feature, mapContext);
+	}
+	
+	/* Re-reads the earthquake feed every POLL_MINUTES on the ingest thread */
+	private void startPolling() {
+		ingestExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "quake-ingest");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		ingestExecutor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				try {
+					classifyNewQuakes(readQuakes());
+				}
+				catch (RuntimeException e) {
+					System.err.println("Could not poll " + earthquakesURL + ": " + e);
+				}
+			}
+		}, POLL_MINUTES, POLL_MINUTES, TimeUnit.MINUTES);
+	}
+	
+	/* Adds earthquakes that arrived after startup to the map and raises
+	 * an alert for the cities in each threat circle. Quakes already known
+	 * are skipped. Classification runs on the ingest thread and the new
+	 * markers join the map together on the next frame */
+	public void ingestQuakes(final List<PointFeature> features) {
+		ingestExecutor.execute(new Runnable() {
+			public void run() {
+				classifyNewQuakes(features);
+			}
+		});
+	}
+	
+	/* Classifies the unseen earthquakes and submits them for alerts
+	 * Runs on the ingest thread */
+	private void classifyNewQuakes(List<PointFeature> features) {
+		for (PointFeature feature : features) {
+			if (!seenQuakes.add(quakeKey((String)feature.getProperty("title"), feature.getLocation()))) {
+				continue;
+			}
+			try {
+				EarthquakeMarker marker = createQuakeMarker(feature);
+				alertPipeline.submit(marker);
+				arrivedQuakes.add(marker);
+			}
+			catch (RuntimeException e) {
+				System.err.println("Could not ingest " + feature.getProperty("title") + ": " + e);
+			}
+		}
+	}
+	
+	/* Identifies an earthquake across polls of the feed */
+	private static String quakeKey(String title, Location location) {
+		return title + "@" + location.getLat() + "," + location.getLon();
+	}
+	
+	/* Adds the earthquakes classified since the last frame to the map */
+	private void addArrivedQuakes() {
+		List<EarthquakeMarker> added = new ArrayList<EarthquakeMarker>();
+		EarthquakeMarker marker;
+		while ((marker = arrivedQuakes.poll()) != null) {
+			added.add(marker);
+		}
+		if (added.isEmpty()) {
+			return;
+		}
+		for (EarthquakeMarker m : added) {
+			quakeMarkers.add(m);
+			map.addMarker(m);
+		}
+		labelLayout.mergeIntoLayer(quakeLabelLayer, added);
 	}
 	
 	/* Draw method - constantly refreshes
 	 */
 	public void draw() {
 		background(0);
+		// draw() may also be called outside the animation loop, e.g. by SessionReplay
+		mapContext.newFrame();
+		addArrivedQuakes();
+		if (cityTiers.update(map.getZoomLevel())) {
+			labelLayout.setSortedLayer(cityLabelLayer, cityTiers.getVisible());
+		}
+		if (declutter) {
+			labelLayout.update(g);
+		}
 		map.draw();
 		addKey();
+		recordViewIfChanged();
 	}
 	
 	/*Event handler that gets called automatically when the mouse moves */
@@ -140,7 +313,10 @@ public class EarthquakeCityMap extends PApplet {
 			lastSelected = null;
 		}
 		selectMarkerIfHover(quakeMarkers);
-		selectMarkerIfHover(cityMarkers);
+		selectMarkerIfHover(cityTiers.getVisible());
+		if (recorder != null) {
+			recorder.recordMouse(InteractionRecorder.MOVE, mouseX, mouseY, describeState());
+		}
 	}
 	
 	/*Method that is called when the mouse hovers over an element */
@@ -187,6 +363,138 @@ public class EarthquakeCityMap extends PApplet {
 				cityClicked();
 			}
 		}
+		// Hidden markers changed, so the labels need placing again
+		if (labelLayout != null) {
+			labelLayout.invalidate();
+		}
+		if (recorder != null) {
+			recorder.recordMouse(InteractionRecorder.CLICK, mouseX, mouseY, describeState());
+		}
+	}
+	
+	/* Event handler for key presses
+	 * 'l' turns labelling of many markers at once on and off
+	 * 'r' starts and stops recording the session for SessionReplay */
+	@Override
+	public void keyPressed() {
+		if (key == 'l' || key == 'L') {
+			declutter = !declutter;
+			if (!declutter) {
+				labelLayout.clear();
+			}
+		}
+		else if (key == 'r' || key == 'R') {
+			toggleRecording();
+		}
+	}
+	
+	/* Starts recording to a new session file, or stops recording */
+	private void toggleRecording() {
+		try {
+			if (recorder == null) {
+				// The replay starts from a fresh setup(), so start from the same state
+				resetSelection();
+				String file = sketchPath("session-" + System.currentTimeMillis() + ".rec");
+				recorder = new InteractionRecorder(file);
+				// The replay starts from the view recording started in
+				recordedZoom = -1;
+				recordViewIfChanged();
+				System.out.println("Recording to " + file);
+			}
+			else {
+				recorder.close();
+				recorder = null;
+				System.out.println("Recording stopped");
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Could not record session: " + e.getMessage());
+			recorder = null;
+		}
+	}
+	
+	/* Clears the hover and click selection and unhides every marker */
+	private void resetSelection() {
+		if (lastSelected != null) {
+			lastSelected.setSelected(false);
+			lastSelected = null;
+		}
+		unhideMarkers();
+		lastClicked = null;
+		labelLayout.invalidate();
+	}
+	
+	/* Stops polling and alerting, reports the alert latency and
+	 * closes the session file if recording when the sketch shuts down */
+	@Override
+	public void dispose() {
+		if (ingestExecutor != null) {
+			ingestExecutor.shutdownNow();
+		}
+		if (alertPipeline != null) {
+			try {
+				alertPipeline.stop();
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			}
+			System.out.println("Ingest to alert latency: " + alertPipeline.getLatency());
+		}
+		if (recorder != null) {
+			try {
+				recorder.close();
+			}
+			catch (IOException e) {
+				System.err.println("Could not close session: " + e.getMessage());
+			}
+			recorder = null;
+		}
+		super.dispose();
+	}
+	
+	/* Records the map view if it has been panned or zoomed since last recorded
+	 * and writes out the events of this frame */
+	private void recordViewIfChanged() {
+		if (recorder == null) {
+			return;
+		}
+		Location center = map.getCenter();
+		if (map.getZoomLevel() != recordedZoom || center.getLat() != recordedLat || center.getLon() != recordedLon) {
+			recordedZoom = map.getZoomLevel();
+			recordedLat = center.getLat();
+			recordedLon = center.getLon();
+			recorder.recordView(recordedZoom, recordedLat, recordedLon, describeState());
+		}
+		recorder.flush();
+	}
+	
+	/* Returns the selection and visibility state, as compared by SessionReplay */
+	protected String describeState() {
+		int hiddenQuakes = 0;
+		for (Marker m : quakeMarkers) {
+			if (m.isHidden()) {
+				hiddenQuakes++;
+			}
+		}
+		int hiddenCities = 0;
+		for (Marker m : cityMarkers) {
+			if (m.isHidden()) {
+				hiddenCities++;
+			}
+		}
+		return "selected=" + markerName(lastSelected) + ";clicked=" + markerName(lastClicked)
+				+ ";hiddenQuakes=" + hiddenQuakes + ";hiddenCities=" + hiddenCities;
+	}
+	
+	/* Returns the title of a quake or the name of a city, or - for none */
+	private static String markerName(CommonMarker marker) {
+		if (marker == null) {
+			return "-";
+		}
+		if (marker instanceof CityMarker) {
+			return ((CityMarker)marker).getCity();
+		}
+		return ((EarthquakeMarker)marker).getTitle();
 	}
 		
 	
@@ -198,8 +506,8 @@ public class EarthquakeCityMap extends PApplet {
 		if (lastClicked != null) {
 			return;
 		}
-		//Iterate through cityMarkers
-		for (Marker cm: cityMarkers) {
+		//Iterate through the cities shown at this zoom level
+		for (Marker cm: cityTiers.getVisible()) {
 			if (!cm.isHidden() && cm.isInside(map, mouseX, mouseY)) {
 				lastClicked = (CommonMarker)cm;		
 				//Hide cities that weren't clicked
@@ -419,17 +727,4 @@ public class EarthquakeCityMap extends PApplet {
 			}
 		}
 	}
-		
-	
-	/* For the OceanMarker class to draw lines to cities within
-	 * the threat circle */
-	public List<Marker> getCityMarker() {
-		return cityMarkers;
-	}
-	
-	/* For the OceanMarker class to draw lines to cities within
-	 * the threat circle */
-	public UnfoldingMap getMap() {
-		return map;
-	}
 }
@@ -1,5 +1,6 @@
 package unfoldingMaps;
 
+import de.fhpotsdam.unfolding.UnfoldingMap;
 import de.fhpotsdam.unfolding.data.PointFeature;
 import processing.core.PConstants;
 import processing.core.PGraphics;
@@ -16,6 +17,15 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 	// Returns whether or not the earthquake occurred on land;
 	// Set by the subclasses.
 	protected boolean isOnLand;
+	
+	// The render context this marker was created with
+	protected MapContext context;
+	
+	// Render contexts of every map this marker is drawn into, by map
+	private Map<UnfoldingMap, MapContext> contexts = new IdentityHashMap<UnfoldingMap, MapContext>();
+	
+	// The render context of the map currently being drawn
+	protected MapContext drawContext;
 
 	// The radius of the Earthquake marker
 	// Set in the constructor using the thresholds below
@@ -40,8 +50,13 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 		
 	
 	/* Constructor */
-	public EarthquakeMarker (PointFeature feature) {
+	public EarthquakeMarker (PointFeature feature, MapContext context) {
 		super(feature.getLocation());
+		this.context = context;
+		this.drawContext = context;
+		if (context != null) {
+			contexts.put(context.getMap(), context);
+		}
 		// Add a radius property and then set the properties
 		java.util.HashMap<String, Object> properties = feature.getProperties();
 		float magnitude = Float.parseFloat(properties.get("magnitude").toString());
@@ -51,6 +66,20 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 	}
 	
 
+	/* Adds the render context of another map this marker is drawn into
+	 * Its cached screen positions expire by themselves on each new frame */
+	public void addContext(MapContext other) {
+		contexts.put(other.getMap(), other);
+	}
+	
+	/* Draws the marker into a map, using that map's render context */
+	@Override
+	public void draw(UnfoldingMap map) {
+		MapContext forMap = contexts.get(map);
+		drawContext = forMap != null ? forMap : context;
+		super.draw(map);
+	}
+	
 	/* Calls abstract method drawEarthquake and then checks when earthquake occurred
 	 * and draws X if recent
 	 */
@@ -104,6 +133,16 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 		
 		pg.popStyle();
 	}
+	
+	/* Returns the box drawn by showTitle */
+	public float[] getLabelBounds(PGraphics pg, float x, float y) {
+		return new float[] {x, y + 15, pg.textWidth(getTitle()) + 6, 18};
+	}
+	
+	/* Earthquakes are labelled by magnitude */
+	public float getLabelPriority() {
+		return getMagnitude();
+	}
 
 	
 	/* Return the "threat circle" radius, i.e distance up to 
@@ -165,6 +204,11 @@ public abstract class EarthquakeMarker extends CommonMarker implements Comparabl
 		return Float.parseFloat(getProperty("radius").toString());
 	}
 	
+	/* Returns the render context this marker was created with */
+	public MapContext getContext() {
+		return context;
+	}
+	
 	/* Returns whether or not the earthquake is on land */
 	public boolean isOnLand() {
 		return isOnLand;
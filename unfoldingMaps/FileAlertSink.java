@@ -0,0 +1,44 @@
+package unfoldingMaps;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+
+/** Alert sink that appends alerts to a file, one city per line
+ *  @author ER
+ */
+public class FileAlertSink implements AlertSink, Closeable {
+
+	private BufferedWriter out;
+
+	/* Constructor opens the file for appending */
+	public FileAlertSink(String fileName) throws IOException {
+		out = new BufferedWriter(new FileWriter(fileName, true));
+	}
+
+	/* Writes the alert as tab separated lines and flushes it */
+	public void alert(ThreatAlert alert) {
+		try {
+			String quake = alert.getQuake().getTitle();
+			if (alert.getCities().isEmpty()) {
+				out.write(quake + "\t-\t-\t-\t-");
+				out.newLine();
+			}
+			for (ThreatAlert.ThreatenedCity city : alert.getCities()) {
+				out.write(quake + "\t" + city.getName() + "\t" + city.getCountry()
+						+ "\t" + Math.round(city.getDistanceKm()) + "\t" + city.getPopulation());
+				out.newLine();
+			}
+			out.flush();
+		}
+		catch (IOException e) {
+			System.err.println("Could not write alert: " + e.getMessage());
+		}
+	}
+
+	/* Closes the file */
+	public void close() throws IOException {
+		out.close();
+	}
+}
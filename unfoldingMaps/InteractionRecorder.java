@@ -0,0 +1,74 @@
+package unfoldingMaps;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Locale;
+
+/** Records a mouse and map session of EarthquakeCityMap to a file
+ *  Each line holds the time since recording started, the event and the
+ *  selection and visibility state after the event was handled, so that
+ *  SessionReplay can check it. Lines are tab separated:
+ *  time MOVE x y state
+ *  time CLICK x y state
+ *  time VIEW zoomLevel lat lon state   (after a pan or zoom)
+ *  @author ER
+ */
+public class InteractionRecorder implements Closeable {
+
+	public static final String HEADER = "# EarthquakeCityMap session v1";
+
+	public static final String MOVE = "MOVE";
+	public static final String CLICK = "CLICK";
+	public static final String VIEW = "VIEW";
+
+	private BufferedWriter out;
+	private long start;
+
+	/* Constructor opens the session file */
+	public InteractionRecorder(String fileName) throws IOException {
+		out = new BufferedWriter(new FileWriter(fileName));
+		out.write(HEADER);
+		out.newLine();
+		start = System.currentTimeMillis();
+	}
+
+	/* Records a mouse move or click at x, y */
+	public void recordMouse(String type, int x, int y, String state) {
+		write(type + "\t" + x + "\t" + y + "\t" + state);
+	}
+
+	/* Records the map view after a pan or zoom */
+	public void recordView(int zoomLevel, float lat, float lon, String state) {
+		write(String.format(Locale.ROOT, "%s\t%d\t%.6f\t%.6f\t%s", VIEW, zoomLevel, lat, lon, state));
+	}
+
+	/* Writes the events recorded so far to the file
+	 * Called once per frame so a window closed while recording loses
+	 * at most one frame, without a write for every mouse move */
+	public void flush() {
+		try {
+			out.flush();
+		}
+		catch (IOException e) {
+			System.err.println("Could not record event: " + e.getMessage());
+		}
+	}
+
+	/* Closes the session file */
+	public void close() throws IOException {
+		out.close();
+	}
+
+	/* Writes one event line */
+	private void write(String event) {
+		try {
+			out.write((System.currentTimeMillis() - start) + "\t" + event);
+			out.newLine();
+		}
+		catch (IOException e) {
+			System.err.println("Could not record event: " + e.getMessage());
+		}
+	}
+}
@@ -0,0 +1,241 @@
+package unfoldingMaps;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import processing.core.PGraphics;
+
+/** Places labels for as many markers as fit without overlapping
+ *  Markers are tried in priority order, layer by layer, and a label is
+ *  kept only if its box does not overlap one already placed. Placed boxes
+ *  are kept in a screen space spatial hash so each check only looks at
+ *  nearby labels. The layout is only recomputed when the view changes.
+ *  @author ER
+ */
+public class LabelLayout {
+
+	// Size of a spatial hash cell in pixels
+	private static final int CELL_SIZE = 64;
+
+	// Most labels shown at once
+	public static final int MAX_LABELS = 500;
+
+	private UnfoldingMap map;
+
+	// Screen area labels may be placed in
+	private float minX, minY, maxX, maxY;
+
+	// Markers to label, each layer sorted by decreasing priority
+	private List<List<? extends Marker>> layers = new ArrayList<List<? extends Marker>>();
+
+	// Label boxes relative to the marker, as textWidth is too slow to call every layout
+	private Map<CommonMarker, float[]> offsets = new IdentityHashMap<CommonMarker, float[]>();
+
+	// Placed label boxes by hash cell
+	private Map<Long, List<float[]>> cells = new HashMap<Long, List<float[]>>();
+
+	// Markers currently labelled
+	private List<CommonMarker> placed = new ArrayList<CommonMarker>();
+
+	// The view the current layout was made for
+	private float lastZoom = Float.NaN;
+	private float lastLat, lastLon;
+	private boolean dirty = true;
+
+	/* Constructor, labels are kept inside the given screen area */
+	public LabelLayout(UnfoldingMap map, float x, float y, float width, float height) {
+		this.map = map;
+		this.minX = x;
+		this.minY = y;
+		this.maxX = x + width;
+		this.maxY = y + height;
+	}
+
+	/* Adds a layer of markers and returns its index
+	 * Earlier layers are labelled before later ones */
+	public int addLayer(List<Marker> markers) {
+		return addSortedLayer(sortByPriority(markers));
+	}
+	
+	/* Adds a layer of markers already in decreasing label priority
+	 * The list is used as is, not copied. Returns the layer's index */
+	public int addSortedLayer(List<? extends Marker> markers) {
+		layers.add(markers);
+		dirty = true;
+		return layers.size() - 1;
+	}
+	
+	/* Replaces the markers of a layer */
+	public void setLayer(int index, List<Marker> markers) {
+		setSortedLayer(index, sortByPriority(markers));
+	}
+	
+	/* Adds new markers to a layer made by addLayer, keeping it sorted
+	 * Only the new markers are sorted, then merged in one pass */
+	public void mergeIntoLayer(int index, List<? extends Marker> added) {
+		List<CommonMarker> fresh = sortByPriority(new ArrayList<Marker>(added));
+		List<? extends Marker> old = layers.get(index);
+		List<CommonMarker> merged = new ArrayList<CommonMarker>(old.size() + fresh.size());
+		int i = 0;
+		int j = 0;
+		while (i < old.size() && j < fresh.size()) {
+			CommonMarker a = (CommonMarker)old.get(i);
+			if (a.getLabelPriority() >= fresh.get(j).getLabelPriority()) {
+				merged.add(a);
+				i++;
+			}
+			else {
+				merged.add(fresh.get(j++));
+			}
+		}
+		while (i < old.size()) {
+			merged.add((CommonMarker)old.get(i++));
+		}
+		while (j < fresh.size()) {
+			merged.add(fresh.get(j++));
+		}
+		layers.set(index, merged);
+		dirty = true;
+	}
+	
+	/* Replaces a layer with markers already in decreasing label priority,
+	 * e.g. when the visible city tiers change */
+	public void setSortedLayer(int index, List<? extends Marker> markers) {
+		layers.set(index, markers);
+		dirty = true;
+	}
+
+	/* Forces a new layout on the next update, e.g. after markers are hidden */
+	public void invalidate() {
+		dirty = true;
+	}
+
+	/* Recomputes the layout if the view has changed since the last one */
+	public void update(PGraphics pg) {
+		float zoom = map.getZoom();
+		Location center = map.getCenter();
+		if (!dirty && zoom == lastZoom && center.getLat() == lastLat && center.getLon() == lastLon) {
+			return;
+		}
+		lastZoom = zoom;
+		lastLat = center.getLat();
+		lastLon = center.getLon();
+		dirty = false;
+		layout(pg);
+	}
+
+	/* Removes all labels */
+	public void clear() {
+		for (CommonMarker m : placed) {
+			m.setLabelled(false);
+		}
+		placed.clear();
+		dirty = true;
+	}
+
+	/* Places labels greedily in priority order */
+	private void layout(PGraphics pg) {
+		for (CommonMarker m : placed) {
+			m.setLabelled(false);
+		}
+		placed.clear();
+		cells.clear();
+
+		for (List<? extends Marker> layer : layers) {
+			for (Marker marker : layer) {
+				CommonMarker m = (CommonMarker)marker;
+				if (placed.size() >= MAX_LABELS) {
+					return;
+				}
+				if (m.isHidden()) {
+					continue;
+				}
+				ScreenPosition pos = map.getScreenPosition(m.getLocation());
+				if (pos.x < minX || pos.x > maxX || pos.y < minY || pos.y > maxY) {
+					continue;
+				}
+				float[] offset = offsets.get(m);
+				if (offset == null) {
+					offset = m.getLabelBounds(pg, 0, 0);
+					offsets.put(m, offset);
+				}
+				float[] box = {pos.x + offset[0], pos.y + offset[1], offset[2], offset[3]};
+				if (box[0] < minX || box[1] < minY || box[0] + box[2] > maxX || box[1] + box[3] > maxY) {
+					continue;
+				}
+				if (!overlaps(box)) {
+					insert(box);
+					m.setLabelled(true);
+					placed.add(m);
+				}
+			}
+		}
+	}
+
+	/* Returns a copy of the markers sorted by decreasing label priority */
+	private static List<CommonMarker> sortByPriority(List<Marker> markers) {
+		List<CommonMarker> layer = new ArrayList<CommonMarker>();
+		for (Marker m : markers) {
+			layer.add((CommonMarker)m);
+		}
+		Collections.sort(layer, new Comparator<CommonMarker>() {
+			public int compare(CommonMarker a, CommonMarker b) {
+				return Float.compare(b.getLabelPriority(), a.getLabelPriority());
+			}
+		});
+		return layer;
+	}
+	
+	/* Returns true if box overlaps a placed label */
+	private boolean overlaps(float[] box) {
+		for (int cx = cell(box[0]); cx <= cell(box[0] + box[2]); cx++) {
+			for (int cy = cell(box[1]); cy <= cell(box[1] + box[3]); cy++) {
+				List<float[]> inCell = cells.get(key(cx, cy));
+				if (inCell == null) {
+					continue;
+				}
+				for (float[] other : inCell) {
+					if (box[0] < other[0] + other[2] && other[0] < box[0] + box[2]
+							&& box[1] < other[1] + other[3] && other[1] < box[1] + box[3]) {
+						return true;
+					}
+				}
+			}
+		}
+		return false;
+	}
+
+	/* Adds box to every cell it covers */
+	private void insert(float[] box) {
+		for (int cx = cell(box[0]); cx <= cell(box[0] + box[2]); cx++) {
+			for (int cy = cell(box[1]); cy <= cell(box[1] + box[3]); cy++) {
+				Long k = key(cx, cy);
+				List<float[]> inCell = cells.get(k);
+				if (inCell == null) {
+					inCell = new ArrayList<float[]>();
+					cells.put(k, inCell);
+				}
+				inCell.add(box);
+			}
+		}
+	}
+
+	/* Returns the hash cell of a screen coordinate */
+	private static int cell(float v) {
+		return (int)Math.floor(v / CELL_SIZE);
+	}
+
+	/* Returns the hash key of a cell */
+	private static long key(int cx, int cy) {
+		return ((long)cx << 32) | (cy & 0xffffffffL);
+	}
+}
@@ -10,8 +10,8 @@ import processing.core.PGraphics;
 public class LandQuakeMarker extends EarthquakeMarker {
 	
 	/* Calls and overrides EarthquakeMarker constructor */ 
-	public LandQuakeMarker(PointFeature quake) {
-		super(quake);
+	public LandQuakeMarker(PointFeature quake, MapContext context) {
+		super(quake, context);
 		// Sets field in EarthquakeMarker
 		isOnLand = true;
 	}
@@ -0,0 +1,82 @@
+package unfoldingMaps;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/** Thread safe histogram of latencies
+ *  Buckets grow by powers of two from one microsecond, with four
+ *  sub-buckets each, so percentiles are accurate to within 25%.
+ *  @author ER
+ */
+public class LatencyHistogram {
+
+	private static final int SUB_BUCKETS = 4;
+	// Covers one microsecond up to about 2^40 microseconds
+	private static final int BUCKETS = 40 * SUB_BUCKETS;
+
+	private AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+
+	/* Records one latency */
+	public void record(long nanos) {
+		counts.incrementAndGet(bucket(nanos / 1000));
+	}
+
+	/* Returns the number of latencies recorded */
+	public long getCount() {
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			total += counts.get(i);
+		}
+		return total;
+	}
+
+	/* Returns the upper bound in microseconds of the given percentile (0-100) */
+	public long getPercentileMicros(double percentile) {
+		long total = getCount();
+		if (total == 0) {
+			return 0;
+		}
+		long target = (long)Math.ceil(total * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts.get(i);
+			if (seen >= Math.max(1, target)) {
+				return upperBound(i);
+			}
+		}
+		return upperBound(BUCKETS - 1);
+	}
+
+	/* Clears all recorded latencies */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			counts.set(i, 0);
+		}
+	}
+
+	/* Returns a summary of the common percentiles */
+	public String toString() {
+		return "n=" + getCount()
+				+ " p50=" + getPercentileMicros(50) + "us"
+				+ " p90=" + getPercentileMicros(90) + "us"
+				+ " p99=" + getPercentileMicros(99) + "us"
+				+ " max=" + getPercentileMicros(100) + "us";
+	}
+
+	/* Returns the bucket holding a latency in microseconds */
+	private static int bucket(long micros) {
+		if (micros < 1) {
+			return 0;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(micros);
+		// The two bits below the leading one pick the sub-bucket
+		int sub = exp >= 2 ? (int)((micros >> (exp - 2)) & 3) : (int)((micros << (2 - exp)) & 3);
+		return Math.min(BUCKETS - 1, exp * SUB_BUCKETS + sub);
+	}
+
+	/* Returns the largest latency in microseconds that falls into a bucket */
+	private static long upperBound(int bucket) {
+		int exp = bucket / SUB_BUCKETS;
+		int sub = bucket % SUB_BUCKETS;
+		return (1L << exp) + ((((long)(sub + 1) << exp) + SUB_BUCKETS - 1) / SUB_BUCKETS) - 1;
+	}
+}
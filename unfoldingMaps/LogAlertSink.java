@@ -0,0 +1,12 @@
+package unfoldingMaps;
+
+/** Alert sink that prints alerts to the console
+ *  @author ER
+ */
+public class LogAlertSink implements AlertSink {
+
+	/* Prints the alert */
+	public void alert(ThreatAlert alert) {
+		System.out.println(alert);
+	}
+}
@@ -0,0 +1,138 @@
+package unfoldingMaps;
+
+import java.util.List;
+
+import de.fhpotsdam.unfolding.UnfoldingMap;
+import de.fhpotsdam.unfolding.geo.Location;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import processing.core.PApplet;
+
+/** Shared render context for the markers of one map
+ *  Gives markers the map they are drawn into, the city markers and
+ *  state cached once per frame, so that no marker needs its own
+ *  copy of the application. A marker drawn into several maps is given
+ *  the context of each with EarthquakeMarker.addContext.
+ *  @author ER
+ */
+public class MapContext {
+
+	// The applet the map belongs to, whose frameCount expires the cache
+	private PApplet applet;
+	
+	// The map the markers are drawn into
+	private UnfoldingMap map;
+
+	// Markers for each city
+	private List<Marker> cityMarkers;
+	
+	// Spatial index over the city markers
+	private CityIndex cityIndex;
+	
+	// Population tiers of the cities, null to always show every city
+	private CityTiers cityTiers;
+	// Number of tiers shown at this map's zoom, only valid while tierGeneration == generation
+	private int shownTiers;
+	private int tierGeneration;
+
+	// Screen positions of cities, only valid while stamp == generation
+	private ScreenPosition[] cityPositions;
+	private int[] cityPositionStamps;
+	private int generation = 1;
+	// The applet frame the current generation belongs to
+	private int generationFrame = -1;
+
+	/* Constructor */
+	public MapContext(PApplet applet, UnfoldingMap map, List<Marker> cityMarkers) {
+		this.applet = applet;
+		this.map = map;
+		this.cityMarkers = cityMarkers;
+		this.cityIndex = new CityIndex(cityMarkers);
+		this.cityPositions = new ScreenPosition[cityMarkers.size()];
+		this.cityPositionStamps = new int[cityMarkers.size()];
+	}
+
+	/* Returns the map */
+	public UnfoldingMap getMap() {
+		return map;
+	}
+
+	/* Returns the city markers */
+	public List<Marker> getCityMarkers() {
+		return cityMarkers;
+	}
+	
+	/* Returns the spatial index over the city markers */
+	public CityIndex getCityIndex() {
+		return cityIndex;
+	}
+
+	/* Sets the population tiers of the cities
+	 * Must be set before markers first look up their threatened cities */
+	public void setCityTiers(CityTiers cityTiers) {
+		this.cityTiers = cityTiers;
+	}
+	
+	/* Returns true if the city at the given index is in a tier shown
+	 * at this map's current zoom level */
+	public boolean isCityShown(int index) {
+		if (cityTiers == null) {
+			return true;
+		}
+		checkFrame();
+		if (tierGeneration != generation) {
+			shownTiers = cityTiers.tierCount(map.getZoomLevel());
+			tierGeneration = generation;
+		}
+		return cityTiers.getTierOfCity(index) < shownTiers;
+	}
+	
+	/* Invalidates the cached screen positions as the map may have moved
+	 * The cache already expires by itself on every new applet frame, so this
+	 * is only needed when the map is drawn more than once in a frame */
+	public void newFrame() {
+		generation++;
+	}
+	
+	/* Starts a new generation of cached state when the applet moves on a frame */
+	private void checkFrame() {
+		if (applet.frameCount != generationFrame) {
+			generationFrame = applet.frameCount;
+			generation++;
+		}
+	}
+
+	/* Returns the screen position of the city at the given index
+	 * Computed at most once per frame */
+	public ScreenPosition getCityScreenPosition(int index) {
+		checkFrame();
+		if (cityPositionStamps[index] != generation) {
+			cityPositions[index] = map.getScreenPosition(cityMarkers.get(index).getLocation());
+			cityPositionStamps[index] = generation;
+		}
+		return cityPositions[index];
+	}
+
+	/* Returns the indices of the cities within km of location
+	 * When tiers are set, the largest tier comes first, so that callers can
+	 * stop at the first city that isCityShown rejects */
+	public int[] getCitiesWithin(Location location, double km) {
+		int[] found = cityIndex.getCitiesWithin(location, km);
+		if (cityTiers == null) {
+			return found;
+		}
+		// Counting sort by tier
+		int[] starts = new int[cityTiers.getTierTotal() + 1];
+		for (int i : found) {
+			starts[cityTiers.getTierOfCity(i) + 1]++;
+		}
+		for (int t = 1; t < starts.length; t++) {
+			starts[t] += starts[t - 1];
+		}
+		int[] ordered = new int[found.length];
+		for (int i : found) {
+			ordered[starts[cityTiers.getTierOfCity(i)]++] = i;
+		}
+		return ordered;
+	}
+}
@@ -1,16 +1,10 @@
 package unfoldingMaps;
 
-import java.util.ArrayList;
-import java.util.List;
+import java.util.IdentityHashMap;
+import java.util.Map;
 
 import de.fhpotsdam.unfolding.utils.ScreenPosition;
-import de.fhpotsdam.unfolding.UnfoldingMap;
-import de.fhpotsdam.unfolding.data.Feature;
-import de.fhpotsdam.unfolding.data.GeoJSONReader;
 import de.fhpotsdam.unfolding.data.PointFeature;
-import de.fhpotsdam.unfolding.marker.SimplePointMarker;
-import de.fhpotsdam.unfolding.marker.Marker;
-import de.fhpotsdam.unfolding.providers.Google;
 import processing.core.PGraphics;
 
 /** Implements a visual marker for ocean earthquakes on an earthquake map
@@ -21,10 +15,12 @@ import processing.core.PGraphics;
 
 public class OceanQuakeMarker extends EarthquakeMarker {
 	
-	EarthquakeCityMap earthMap = new EarthquakeCityMap();
+	// Indices of the cities within the threat circle, by render context
+	// Cities do not move, so these are found once per context on first draw
+	private Map<MapContext, int[]> threatenedCities = new IdentityHashMap<MapContext, int[]>();
 	
-	public OceanQuakeMarker(PointFeature quake) {
-		super(quake);
+	public OceanQuakeMarker(PointFeature quake, MapContext context) {
+		super(quake, context);
 		isOnLand = false;
 	}
 	
@@ -34,20 +30,23 @@ public class OceanQuakeMarker extends EarthquakeMarker {
 	@Override
 	public void drawEarthquake(PGraphics pg, float x, float y) {
 		pg.rect(x-radius, y-radius, 2*radius, 2*radius);
-		//Get cities and map (static fields) from EarthquakeCityMap
-		List<Marker> cityMarkers = earthMap.getCityMarker();
-		UnfoldingMap map = earthMap.getMap();
+		//Get cities within the threat zone from the context of the map being drawn
+		int[] cities = threatenedCities.get(drawContext);
+		if (cities == null) {
+			cities = drawContext.getCitiesWithin(getLocation(), threatCircle());
+			threatenedCities.put(drawContext, cities);
+		}
 		
-		// Iterates through each cityMarker
-		for (Marker city: cityMarkers) {
-			//Get screen position of cities
-			float xcity = map.getScreenPosition(city.getLocation()).x;
-			float ycity = map.getScreenPosition(city.getLocation()).y;
-			//Draw a line between city/ earthquake if it's within the threat zone
-			if (city.getDistanceTo(getLocation()) <= threatCircle()) {
-						pg.strokeWeight(1);
-						pg.line(x, y, xcity, ycity);
+		// Draw a line between the earthquake and each threatened city
+		pg.strokeWeight(1);
+		for (int i: cities) {
+			//Cities come largest tier first, so stop at the first hidden tier
+			if (!drawContext.isCityShown(i)) {
+				break;
 			}
+			//Screen positions are cached once per frame in the context
+			ScreenPosition city = drawContext.getCityScreenPosition(i);
+			pg.line(x, y, city.x, city.y);
 		}
 	}
 }
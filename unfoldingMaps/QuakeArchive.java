@@ -0,0 +1,265 @@
+package unfoldingMaps;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/** Reads a columnar on-disk archive of historical earthquakes
+ *  The archive is a directory of time partitioned segment files written by
+ *  QuakeArchiveWriter. Each segment is memory mapped and starts with a header
+ *  holding its time range, bounding box and magnitude range, so queries skip
+ *  segments that cannot match without touching their columns.
+ *
+ *  Segment layout (big endian):
+ *  header  magic, version, count, min/max time, min/max lat, min/max lon,
+ *          min/max magnitude, lengths of the time, lat and lon columns
+ *  columns time deltas as variable length longs; lat and lon in 1e-4
+ *          degrees (about 11 m) as zigzag variable length deltas from the
+ *          previous record, starting from the segment minimum; magnitude as
+ *          shorts in 0.01, depth as shorts in 0.1 km, land flag as bytes,
+ *          country as shorts into the dictionary
+ *  dictionary of country names
+ *  @author ER
+ */
+public class QuakeArchive {
+
+	public static final int MAGIC = 0x51415243; // "QARC"
+	public static final short VERSION = 2;
+	public static final String SEGMENT_SUFFIX = ".qseg";
+
+	// Quantization of the columns
+	public static final double COORD_SCALE = 1e4;
+	public static final float MAG_SCALE = 100;
+	public static final float DEPTH_SCALE = 10;
+
+	private static final int HEADER_SIZE = 58;
+
+	// Headers of every segment, by increasing start time
+	private List<Segment> segments = new ArrayList<Segment>();
+
+	/* Constructor maps every segment in the directory and reads its header */
+	public QuakeArchive(File dir) throws IOException {
+		File[] files = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File d, String name) {
+				return name.endsWith(SEGMENT_SUFFIX);
+			}
+		});
+		if (files == null) {
+			throw new IOException("Not an archive directory: " + dir);
+		}
+		for (File file : files) {
+			segments.add(new Segment(file));
+		}
+		Collections.sort(segments, new Comparator<Segment>() {
+			public int compare(Segment a, Segment b) {
+				return Long.compare(a.minTime, b.minTime);
+			}
+		});
+	}
+
+	/* Returns the number of segments */
+	public int getSegmentCount() {
+		return segments.size();
+	}
+
+	/* Returns markers for the quakes in the time range [from, to] */
+	public List<EarthquakeMarker> query(long from, long to, MapContext context) {
+		return query(from, to, -90, 90, -180, 180, 0, context);
+	}
+
+	/* Returns markers for the quakes in the time range [from, to] inside the
+	 * bounding box with at least the given magnitude
+	 * The bounding box may not cross the antimeridian */
+	public List<EarthquakeMarker> query(long from, long to, float minLat, float maxLat,
+			float minLon, float maxLon, float minMagnitude, MapContext context) {
+		int qMinLat = (int)Math.floor(minLat * COORD_SCALE);
+		int qMaxLat = (int)Math.ceil(maxLat * COORD_SCALE);
+		int qMinLon = (int)Math.floor(minLon * COORD_SCALE);
+		int qMaxLon = (int)Math.ceil(maxLon * COORD_SCALE);
+		int qMinMag = Math.round(minMagnitude * MAG_SCALE);
+
+		long now = System.currentTimeMillis();
+		List<EarthquakeMarker> markers = new ArrayList<EarthquakeMarker>();
+		for (Segment s : segments) {
+			// Skip segments whose header rules them out
+			if (s.maxTime < from || s.minTime > to
+					|| s.maxLat < qMinLat || s.minLat > qMaxLat
+					|| s.maxLon < qMinLon || s.minLon > qMaxLon
+					|| s.maxMag < qMinMag) {
+				continue;
+			}
+			s.scan(from, to, qMinLat, qMaxLat, qMinLon, qMaxLon, qMinMag, context, now, markers);
+		}
+		return markers;
+	}
+
+	/* Returns every record of one segment file, in time order
+	 * The file is read rather than mapped, so that QuakeArchiveWriter can
+	 * replace it with a compacted segment straight after */
+	static List<QuakeRecord> readSegment(File file) throws IOException {
+		Segment segment = new Segment(ByteBuffer.wrap(Files.readAllBytes(file.toPath())), file);
+		List<QuakeRecord> records = new ArrayList<QuakeRecord>(segment.count);
+		segment.read(Long.MIN_VALUE, Long.MAX_VALUE, Integer.MIN_VALUE, Integer.MAX_VALUE,
+				Integer.MIN_VALUE, Integer.MAX_VALUE, Integer.MIN_VALUE, records);
+		return records;
+	}
+
+	/* Returns a coordinate in the archive's quantized form */
+	public static int quantizeCoord(float degrees) {
+		return (int)Math.round(degrees * COORD_SCALE);
+	}
+
+	/** One memory mapped segment file */
+	private static class Segment {
+		private ByteBuffer buf;
+		private int count;
+		private long minTime, maxTime;
+		private int minLat, maxLat, minLon, maxLon;
+		private short minMag, maxMag;
+
+		// Offsets of the columns in the file
+		private int timeStart, latStart, lonStart, magStart, depthStart, landStart, countryStart, dictStart;
+
+		// Country names, read on first scan
+		private String[] dictionary;
+
+		/* Maps the file and reads the header */
+		Segment(File file) throws IOException {
+			this(map(file), file);
+		}
+
+		/* Reads the header of a segment held in buf */
+		Segment(ByteBuffer buf, File file) throws IOException {
+			this.buf = buf;
+			if (buf.limit() < HEADER_SIZE || buf.getInt(0) != MAGIC || buf.getShort(4) != VERSION) {
+				throw new IOException("Not a quake archive segment: " + file);
+			}
+			count = buf.getInt(6);
+			minTime = buf.getLong(10);
+			maxTime = buf.getLong(18);
+			minLat = buf.getInt(26);
+			maxLat = buf.getInt(30);
+			minLon = buf.getInt(34);
+			maxLon = buf.getInt(38);
+			minMag = buf.getShort(42);
+			maxMag = buf.getShort(44);
+			timeStart = HEADER_SIZE;
+			latStart = timeStart + buf.getInt(46);
+			lonStart = latStart + buf.getInt(50);
+			magStart = lonStart + buf.getInt(54);
+			depthStart = magStart + 2 * count;
+			landStart = depthStart + 2 * count;
+			countryStart = landStart + count;
+			dictStart = countryStart + 2 * count;
+		}
+
+		/* Maps a whole segment file */
+		private static ByteBuffer map(File file) throws IOException {
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			try {
+				// The mapping stays valid after the channel is closed
+				MappedByteBuffer mapped = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+				return mapped;
+			}
+			finally {
+				raf.close();
+			}
+		}
+
+		/* Adds markers for the matching records of this segment */
+		void scan(long from, long to, int qMinLat, int qMaxLat, int qMinLon, int qMaxLon,
+				int qMinMag, MapContext context, long now, List<EarthquakeMarker> markers) {
+			List<QuakeRecord> records = new ArrayList<QuakeRecord>();
+			read(from, to, qMinLat, qMaxLat, qMinLon, qMaxLon, qMinMag, records);
+			for (QuakeRecord record : records) {
+				markers.add(record.toMarker(context, now));
+			}
+		}
+
+		/* Adds the matching records of this segment */
+		void read(long from, long to, int qMinLat, int qMaxLat, int qMinLon, int qMaxLon,
+				int qMinMag, List<QuakeRecord> records) {
+			// The delta coded columns are read in step, one record at a time
+			ByteBuffer times = column(timeStart);
+			ByteBuffer lats = column(latStart);
+			ByteBuffer lons = column(lonStart);
+			long time = minTime;
+			int lat = minLat;
+			int lon = minLon;
+			for (int i = 0; i < count; i++) {
+				time += readVarLong(times);
+				lat += unzigzag(readVarLong(lats));
+				lon += unzigzag(readVarLong(lons));
+
+				// Records are sorted by time
+				if (time > to) {
+					return;
+				}
+				if (time < from) {
+					continue;
+				}
+				short mag = buf.getShort(magStart + 2 * i);
+				if (lat < qMinLat || lat > qMaxLat || lon < qMinLon || lon > qMaxLon || mag < qMinMag) {
+					continue;
+				}
+				boolean onLand = buf.get(landStart + i) != 0;
+				short country = buf.getShort(countryStart + 2 * i);
+				QuakeRecord record = new QuakeRecord(time,
+						(float)(lat / COORD_SCALE), (float)(lon / COORD_SCALE),
+						mag / MAG_SCALE, buf.getShort(depthStart + 2 * i) / DEPTH_SCALE,
+						onLand, country < 0 ? null : getDictionary()[country]);
+				records.add(record);
+			}
+		}
+
+		/* Returns a view of the mapped file positioned at a column */
+		private ByteBuffer column(int start) {
+			ByteBuffer column = buf.duplicate();
+			column.position(start);
+			return column;
+		}
+
+		/* Reads an unsigned variable length long, 7 bits per byte */
+		private static long readVarLong(ByteBuffer in) {
+			long value = 0;
+			int shift = 0;
+			byte b;
+			do {
+				b = in.get();
+				value |= (long)(b & 0x7F) << shift;
+				shift += 7;
+			} while ((b & 0x80) != 0);
+			return value;
+		}
+
+		/* Undoes the zigzag encoding of a signed delta */
+		private static int unzigzag(long value) {
+			return (int)((value >>> 1) ^ -(value & 1));
+		}
+
+		/* Returns the country names, reading them on first use */
+		private synchronized String[] getDictionary() {
+			if (dictionary == null) {
+				ByteBuffer in = buf.duplicate();
+				in.position(dictStart);
+				dictionary = new String[in.getInt()];
+				for (int i = 0; i < dictionary.length; i++) {
+					byte[] utf = new byte[in.getShort() & 0xFFFF];
+					in.get(utf);
+					dictionary[i] = new String(utf, StandardCharsets.UTF_8);
+				}
+			}
+			return dictionary;
+		}
+	}
+}
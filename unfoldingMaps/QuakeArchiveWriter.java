@@ -0,0 +1,230 @@
+package unfoldingMaps;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/** Writes earthquake records into time partitioned QuakeArchive segments
+ *  Records are buffered and, on flush, merged with the segment already on
+ *  disk for their time partition, so that each partition stays a single
+ *  segment file however often the writer flushes. See QuakeArchive for the
+ *  layout.
+ *  @author ER
+ */
+public class QuakeArchiveWriter implements Closeable {
+
+	// Default partition length, one segment per day
+	public static final long DAY_PARTITIONS = 24 * 3600 * 1000L;
+
+	// Records buffered before they are written out
+	private static final int FLUSH_THRESHOLD = 100000;
+
+	private File dir;
+	private long partitionMillis;
+
+	// Buffered records by partition start time
+	private Map<Long, List<QuakeRecord>> pending = new TreeMap<Long, List<QuakeRecord>>();
+	private int pendingCount;
+
+	/* Constructor, creating the archive directory if needed */
+	public QuakeArchiveWriter(File dir, long partitionMillis) throws IOException {
+		if (!dir.isDirectory() && !dir.mkdirs()) {
+			throw new IOException("Cannot create archive directory " + dir);
+		}
+		this.dir = dir;
+		this.partitionMillis = partitionMillis;
+	}
+
+	/* Adds a record, flushing if the buffer is full */
+	public void append(QuakeRecord record) throws IOException {
+		long partition = Math.floorDiv(record.getTime(), partitionMillis) * partitionMillis;
+		List<QuakeRecord> records = pending.get(partition);
+		if (records == null) {
+			records = new ArrayList<QuakeRecord>();
+			pending.put(partition, records);
+		}
+		records.add(record);
+		if (++pendingCount >= FLUSH_THRESHOLD) {
+			flush();
+		}
+	}
+
+	/* Writes the buffered records of every partition into its segment */
+	public void flush() throws IOException {
+		for (Map.Entry<Long, List<QuakeRecord>> entry : pending.entrySet()) {
+			compact(entry.getKey(), entry.getValue());
+		}
+		pending.clear();
+		pendingCount = 0;
+	}
+
+	/* Flushes the remaining records */
+	public void close() throws IOException {
+		flush();
+	}
+
+	/* Merges the records with the existing segments of the partition and
+	 * replaces them with one segment
+	 * Segments named quakes-<partition>-<seq> by earlier versions are
+	 * merged in and removed as well */
+	private void compact(final long partition, List<QuakeRecord> records) throws IOException {
+		File target = new File(dir, "quakes-" + partition + QuakeArchive.SEGMENT_SUFFIX);
+		File[] existing = dir.listFiles(new FilenameFilter() {
+			public boolean accept(File d, String name) {
+				return name.endsWith(QuakeArchive.SEGMENT_SUFFIX)
+						&& (name.startsWith("quakes-" + partition + ".")
+								|| name.startsWith("quakes-" + partition + "-"));
+			}
+		});
+		if (existing == null) {
+			throw new IOException("Cannot list archive directory " + dir);
+		}
+		for (File file : existing) {
+			records.addAll(QuakeArchive.readSegment(file));
+		}
+
+		// Write beside the segment and swap it in, so a failed write keeps the old one
+		File temp = new File(dir, target.getName() + ".tmp");
+		writeSegment(temp, records);
+		Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		for (File file : existing) {
+			if (!file.equals(target) && !file.delete()) {
+				throw new IOException("Cannot remove compacted segment " + file);
+			}
+		}
+	}
+
+	/* Writes the records of one partition as a segment file */
+	private void writeSegment(File file, List<QuakeRecord> records) throws IOException {
+		Collections.sort(records, new Comparator<QuakeRecord>() {
+			public int compare(QuakeRecord a, QuakeRecord b) {
+				return Long.compare(a.getTime(), b.getTime());
+			}
+		});
+		int n = records.size();
+		long minTime = records.get(0).getTime();
+		long maxTime = records.get(n - 1).getTime();
+		int minLat = Integer.MAX_VALUE, maxLat = Integer.MIN_VALUE;
+		int minLon = Integer.MAX_VALUE, maxLon = Integer.MIN_VALUE;
+		short minMag = Short.MAX_VALUE, maxMag = Short.MIN_VALUE;
+
+		// Quantize every column first so the header can hold the bounds
+		int[] lats = new int[n];
+		int[] lons = new int[n];
+		short[] mags = new short[n];
+		short[] depths = new short[n];
+		short[] countries = new short[n];
+		List<String> dictionary = new ArrayList<String>();
+		Map<String, Short> dictionaryIndex = new HashMap<String, Short>();
+		ByteArrayOutputStream times = new ByteArrayOutputStream();
+		long previous = minTime;
+		for (int i = 0; i < n; i++) {
+			QuakeRecord r = records.get(i);
+			writeVarLong(times, r.getTime() - previous);
+			previous = r.getTime();
+			lats[i] = QuakeArchive.quantizeCoord(r.getLat());
+			lons[i] = QuakeArchive.quantizeCoord(r.getLon());
+			mags[i] = (short)Math.round(r.getMagnitude() * QuakeArchive.MAG_SCALE);
+			depths[i] = (short)Math.round(r.getDepth() * QuakeArchive.DEPTH_SCALE);
+			minLat = Math.min(minLat, lats[i]);
+			maxLat = Math.max(maxLat, lats[i]);
+			minLon = Math.min(minLon, lons[i]);
+			maxLon = Math.max(maxLon, lons[i]);
+			minMag = (short)Math.min(minMag, mags[i]);
+			maxMag = (short)Math.max(maxMag, mags[i]);
+			countries[i] = -1;
+			if (r.getCountry() != null) {
+				Short index = dictionaryIndex.get(r.getCountry());
+				if (index == null) {
+					index = (short)dictionary.size();
+					dictionary.add(r.getCountry());
+					dictionaryIndex.put(r.getCountry(), index);
+				}
+				countries[i] = index;
+			}
+		}
+
+		// Coordinates are delta coded from the segment minimum in record order
+		ByteArrayOutputStream latColumn = new ByteArrayOutputStream();
+		ByteArrayOutputStream lonColumn = new ByteArrayOutputStream();
+		int previousLat = minLat;
+		int previousLon = minLon;
+		for (int i = 0; i < n; i++) {
+			writeVarLong(latColumn, zigzag(lats[i] - previousLat));
+			writeVarLong(lonColumn, zigzag(lons[i] - previousLon));
+			previousLat = lats[i];
+			previousLon = lons[i];
+		}
+
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(QuakeArchive.MAGIC);
+			out.writeShort(QuakeArchive.VERSION);
+			out.writeInt(n);
+			out.writeLong(minTime);
+			out.writeLong(maxTime);
+			out.writeInt(minLat);
+			out.writeInt(maxLat);
+			out.writeInt(minLon);
+			out.writeInt(maxLon);
+			out.writeShort(minMag);
+			out.writeShort(maxMag);
+			out.writeInt(times.size());
+			out.writeInt(latColumn.size());
+			out.writeInt(lonColumn.size());
+			times.writeTo(out);
+			latColumn.writeTo(out);
+			lonColumn.writeTo(out);
+			for (short v : mags) {
+				out.writeShort(v);
+			}
+			for (short v : depths) {
+				out.writeShort(v);
+			}
+			for (QuakeRecord r : records) {
+				out.writeByte(r.isOnLand() ? 1 : 0);
+			}
+			for (short v : countries) {
+				out.writeShort(v);
+			}
+			out.writeInt(dictionary.size());
+			for (String country : dictionary) {
+				byte[] utf = country.getBytes(StandardCharsets.UTF_8);
+				out.writeShort(utf.length);
+				out.write(utf);
+			}
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/* Zigzag encodes a signed delta so small values of either sign stay short */
+	private static long zigzag(int value) {
+		return ((long)value << 1) ^ (value >> 31);
+	}
+
+	/* Writes an unsigned variable length long, 7 bits per byte */
+	private static void writeVarLong(ByteArrayOutputStream out, long value) {
+		while ((value & ~0x7FL) != 0) {
+			out.write((int)((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.write((int)value);
+	}
+}
@@ -0,0 +1,122 @@
+package unfoldingMaps;
+
+import java.util.HashMap;
+import java.util.Locale;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.geo.Location;
+
+/** One earthquake as stored in a QuakeArchive
+ *  @author ER
+ */
+public class QuakeRecord {
+
+	private static final long HOUR = 3600 * 1000L;
+	private static final long DAY = 24 * HOUR;
+
+	// Time of the quake in milliseconds since the epoch
+	private long time;
+	private float lat;
+	private float lon;
+	private float magnitude;
+	// Depth in km
+	private float depth;
+	private boolean onLand;
+	// Country the quake was in, null for ocean quakes
+	private String country;
+
+	/* Constructor */
+	public QuakeRecord(long time, float lat, float lon, float magnitude, float depth,
+			boolean onLand, String country) {
+		this.time = time;
+		this.lat = lat;
+		this.lon = lon;
+		this.magnitude = magnitude;
+		this.depth = depth;
+		this.onLand = onLand;
+		this.country = country;
+	}
+
+	/* Creates a record from a classified marker and the time of the quake */
+	public static QuakeRecord fromMarker(EarthquakeMarker marker, long time) {
+		Location loc = marker.getLocation();
+		String country = marker.isOnLand() ? marker.getStringProperty("country") : null;
+		return new QuakeRecord(time, loc.getLat(), loc.getLon(), marker.getMagnitude(),
+				marker.getDepth(), marker.isOnLand(), country);
+	}
+
+	/* Creates a land or ocean marker for this quake
+	 * The age property is worked out relative to now and, as the archive
+	 * does not keep feed titles, the title is made from magnitude and country */
+	public EarthquakeMarker toMarker(MapContext context, long now) {
+		PointFeature feature = new PointFeature(new Location(lat, lon));
+		HashMap<String, Object> properties = new HashMap<String, Object>();
+		properties.put("magnitude", magnitude);
+		properties.put("depth", depth);
+		properties.put("age", age(now - time));
+		properties.put("title", String.format(Locale.ROOT, "M %.1f - %s", magnitude,
+				onLand ? country : "Ocean"));
+		if (onLand) {
+			properties.put("country", country);
+		}
+		feature.setProperties(properties);
+		if (onLand) {
+			return new LandQuakeMarker(feature, context);
+		}
+		return new OceanQuakeMarker(feature, context);
+	}
+
+	/* Returns the age category USGS uses for an event of the given age */
+	private static String age(long millis) {
+		if (millis < HOUR) {
+			return "Past Hour";
+		}
+		else if (millis < DAY) {
+			return "Past Day";
+		}
+		else if (millis < 7 * DAY) {
+			return "Past Week";
+		}
+		else if (millis < 30 * DAY) {
+			return "Past Month";
+		}
+		return "Older";
+	}
+
+	// GETTERS FOR RECORD FIELDS
+
+	/* Returns the time in milliseconds since the epoch */
+	public long getTime() {
+		return time;
+	}
+
+	/* Returns the latitude */
+	public float getLat() {
+		return lat;
+	}
+
+	/* Returns the longitude */
+	public float getLon() {
+		return lon;
+	}
+
+	/* Returns the magnitude */
+	public float getMagnitude() {
+		return magnitude;
+	}
+
+	/* Returns the depth in km */
+	public float getDepth() {
+		return depth;
+	}
+
+	/* Returns whether the quake was on land */
+	public boolean isOnLand() {
+		return onLand;
+	}
+
+	/* Returns the country, or null for ocean quakes */
+	public String getCountry() {
+		return country;
+	}
+}
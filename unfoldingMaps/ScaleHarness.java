@@ -0,0 +1,169 @@
+package unfoldingMaps;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import de.fhpotsdam.unfolding.data.PointFeature;
+import de.fhpotsdam.unfolding.marker.Marker;
+import de.fhpotsdam.unfolding.utils.ScreenPosition;
+import processing.core.PApplet;
+
+/** Scale test harness for EarthquakeCityMap
+ *  Generates synthetic catalogs at increasing multiples of the bundled data
+ *  and times the load, classification, hover and click paths on each, then
+ *  prints how time and memory grow with size and writes them to a CSV file.
+ *  Data, mouse positions and clicks are seeded so runs can be compared
+ *  between releases.
+ *  Synthetic files go to a temporary directory and are deleted after each size.
+ *  Options (system properties): scale.factors (default 1,10,100,1000,4000,
+ *  the last being a million quakes),
+ *  scale.seed (default 2015), scale.report (default scale-report.csv)
+ *  @author ER
+ */
+public class ScaleHarness extends EarthquakeCityMap {
+
+	private static final long serialVersionUID = 1L;
+
+	// Size of the bundled feed and city data, multiplied by each factor
+	public static final int BASE_QUAKES = 250;
+	public static final int BASE_CITIES = 150;
+
+	// Number of simulated mouse moves and clicks per size
+	private static final int HOVERS = 1000;
+	private static final int CLICKS = 50;
+
+	/* Runs every size once the map exists, then exits */
+	public void setup() {
+		size(900, 700, OPENGL);
+		createMap();
+		loadCountries();
+
+		String[] factors = System.getProperty("scale.factors", "1,10,100,1000,4000").split(",");
+		long seed = Long.parseLong(System.getProperty("scale.seed", "2015"));
+		String report = System.getProperty("scale.report", "scale-report.csv");
+
+		try {
+			File dataDir = Files.createTempDirectory("quake-scale").toFile();
+			PrintWriter csv = new PrintWriter(new FileWriter(report));
+			try {
+				csv.println("quakes,cities,load_ms,classify_ms,hover_p50_us,hover_p99_us,click_p50_us,click_p99_us,heap_mb");
+				System.out.println("  quakes  cities   load ms  classify ms  hover p50/p99 us  click p50/p99 us  heap MB");
+				for (String factor : factors) {
+					int n = Integer.parseInt(factor.trim());
+					csv.println(runSize(dataDir, BASE_QUAKES * n, BASE_CITIES * n, seed));
+					csv.flush();
+				}
+			}
+			finally {
+				csv.close();
+				dataDir.delete();
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Scale run failed: " + e.getMessage());
+		}
+		exit();
+	}
+
+	/* Nothing to draw, the harness runs in setup */
+	public void draw() {
+	}
+
+	/* Generates, loads and exercises one catalog size
+	 * Returns the CSV line for it */
+	private String runSize(File dataDir, int quakes, int cities, long seed) throws IOException {
+		SyntheticCatalog catalog = new SyntheticCatalog(seed);
+		File quakeFile = new File(dataDir, "synthetic-" + quakes + ".atom");
+		File citiesFile = new File(dataDir, "synthetic-cities-" + cities + ".json");
+		earthquakesURL = quakeFile.getAbsolutePath();
+		cityFile = citiesFile.getAbsolutePath();
+		try {
+			catalog.writeQuakeFeed(earthquakesURL, quakes);
+			catalog.writeCities(cityFile, cities);
+			return exercise(quakes, cities, seed);
+		}
+		finally {
+			// A million-quake feed is hundreds of MB, so never keep it around
+			quakeFile.delete();
+			citiesFile.delete();
+		}
+	}
+
+	/* Loads the catalog just written and times each path on it
+	 * Returns the CSV line for it */
+	private String exercise(int quakes, int cities, long seed) {
+
+		// Drop the previous size before measuring this one
+		clearData();
+		long heapBefore = usedHeap();
+
+		long start = System.nanoTime();
+		loadCities();
+		List<PointFeature> features = readQuakes();
+		long loadNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		loadQuakes(features);
+		long classifyNanos = System.nanoTime() - start;
+		features = null;
+		long heap = usedHeap() - heapBefore;
+
+		// Hit test every city tier, not just those shown at the current zoom
+		cityTiers.showAll();
+
+		// Hover over seeded positions inside the map
+		Random random = new Random(seed);
+		LatencyHistogram hover = new LatencyHistogram();
+		for (int i = 0; i < HOVERS; i++) {
+			mouseX = 200 + random.nextInt(650);
+			mouseY = 50 + random.nextInt(600);
+			start = System.nanoTime();
+			mouseMoved();
+			hover.record(System.nanoTime() - start);
+		}
+
+		// Click on seeded quakes, then click again to unhide everything
+		LatencyHistogram click = new LatencyHistogram();
+		for (int i = 0; i < CLICKS && !quakeMarkers.isEmpty(); i++) {
+			Marker quake = quakeMarkers.get(random.nextInt(quakeMarkers.size()));
+			ScreenPosition pos = map.getScreenPosition(quake.getLocation());
+			mouseX = (int)pos.x;
+			mouseY = (int)pos.y;
+			for (int c = 0; c < 2; c++) {
+				start = System.nanoTime();
+				mouseClicked();
+				click.record(System.nanoTime() - start);
+			}
+		}
+
+		String line = String.format(Locale.ROOT, "%d,%d,%d,%d,%d,%d,%d,%d,%d",
+				quakes, cities, loadNanos / 1000000, classifyNanos / 1000000,
+				hover.getPercentileMicros(50), hover.getPercentileMicros(99),
+				click.getPercentileMicros(50), click.getPercentileMicros(99), heap >> 20);
+		System.out.println(String.format(Locale.ROOT, "%8d %7d %9d %12d %8d/%-8d %8d/%-8d %8d",
+				quakes, cities, loadNanos / 1000000, classifyNanos / 1000000,
+				hover.getPercentileMicros(50), hover.getPercentileMicros(99),
+				click.getPercentileMicros(50), click.getPercentileMicros(99), heap >> 20));
+		return line;
+	}
+
+	/* Returns the heap in use after a garbage collection */
+	private static long usedHeap() {
+		Runtime runtime = Runtime.getRuntime();
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/* Runs the harness */
+	public static void main(String[] args) {
+		PApplet.main(new String[] {"unfoldingMaps.ScaleHarness"});
+	}
+}
@@ -0,0 +1,113 @@
+package unfoldingMaps;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import de.fhpotsdam.unfolding.geo.Location;
+import processing.core.PApplet;
+
+/** Replays a session recorded by InteractionRecorder against EarthquakeCityMap
+ *  Events are fed straight to the handlers, without waiting for real input,
+ *  as fast as they can be handled. Reports the latency percentiles of each
+ *  event type and every event whose selection or visibility state differs
+ *  from the recording, then exits with status 1 if any did.
+ *  Options (system properties): replay.file (default session.rec)
+ *  @author ER
+ */
+public class SessionReplay extends EarthquakeCityMap {
+
+	private static final long serialVersionUID = 1L;
+
+	// Mismatches printed in full
+	private static final int MAX_REPORTED = 20;
+
+	/* Loads the data as usual, then replays the session and exits */
+	public void setup() {
+		super.setup();
+		noLoop();
+		map.setTweening(false);
+
+		String file = System.getProperty("replay.file", "session.rec");
+		Map<String, LatencyHistogram> latency = new LinkedHashMap<String, LatencyHistogram>();
+		latency.put(InteractionRecorder.MOVE, new LatencyHistogram());
+		latency.put(InteractionRecorder.CLICK, new LatencyHistogram());
+		latency.put(InteractionRecorder.VIEW, new LatencyHistogram());
+		List<String> mismatches = new ArrayList<String>();
+		int events = 0;
+
+		try {
+			BufferedReader in = new BufferedReader(new FileReader(file));
+			try {
+				String line;
+				int lineNo = 0;
+				while ((line = in.readLine()) != null) {
+					lineNo++;
+					if (line.isEmpty() || line.startsWith("#")) {
+						continue;
+					}
+					String[] f = line.split("\t");
+					String type = f[1];
+					String expected;
+					boolean view = InteractionRecorder.VIEW.equals(type);
+					long start = System.nanoTime();
+					if (view) {
+						map.zoomAndPanTo(Integer.parseInt(f[2]),
+								new Location(Float.parseFloat(f[3]), Float.parseFloat(f[4])));
+						expected = f[5];
+					}
+					else {
+						mouseX = Integer.parseInt(f[2]);
+						mouseY = Integer.parseInt(f[3]);
+						if (InteractionRecorder.CLICK.equals(type)) {
+							mouseClicked();
+						}
+						else {
+							mouseMoved();
+						}
+						expected = f[4];
+					}
+					latency.get(type).record(System.nanoTime() - start);
+					events++;
+					if (view) {
+						// A frame is drawn between a view change and the next event,
+						// but rendering it is not part of the view change latency
+						draw();
+					}
+
+					String actual = describeState();
+					if (!actual.equals(expected)) {
+						mismatches.add("line " + lineNo + " " + type + ": expected " + expected + " got " + actual);
+					}
+				}
+			}
+			finally {
+				in.close();
+			}
+		}
+		catch (IOException e) {
+			System.err.println("Could not replay " + file + ": " + e.getMessage());
+			System.exit(2);
+		}
+
+		System.out.println("Replayed " + events + " events from " + file);
+		for (Map.Entry<String, LatencyHistogram> entry : latency.entrySet()) {
+			System.out.println(String.format("%-6s %s", entry.getKey(), entry.getValue()));
+		}
+		System.out.println("Final state: " + describeState());
+		for (int i = 0; i < Math.min(MAX_REPORTED, mismatches.size()); i++) {
+			System.out.println("MISMATCH " + mismatches.get(i));
+		}
+		System.out.println(mismatches.size() + " mismatches");
+		System.exit(mismatches.isEmpty() ? 0 : 1);
+	}
+
+	/* Runs the replay */
+	public static void main(String[] args) {
+		PApplet.main(new String[] {"unfoldingMaps.SessionReplay"});
+	}
+}
@@ -0,0 +1,242 @@
+package unfoldingMaps;
+
+import java.io.BufferedWriter;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.Random;
+import java.util.TimeZone;
+
+/** Deterministic generator of synthetic earthquake feeds and city datasets
+ *  Quakes are clustered along the major plate boundaries, magnitudes follow
+ *  the Gutenberg-Richter law and cities are scattered around real metropolitan
+ *  areas. The same seed and size always produce byte identical files.
+ *  Usage: SyntheticCatalog quakes cities seed quakeFile cityFile
+ *  @author ER
+ */
+public class SyntheticCatalog {
+
+	// Time the feed is generated at, the day the bundled feed was saved
+	public static final long FEED_TIME = 1438905600000L; // 2015-08-07T00:00:00Z
+
+	private static final long HOUR = 3600 * 1000L;
+	private static final long DAY = 24 * HOUR;
+
+	// Approximate plate boundaries as lat/lon polylines
+	private static final float[][] BOUNDARIES = {
+		// Andes and Central America
+		{-55, -70, -40, -74, -20, -71, -5, -81, 10, -86, 17, -100},
+		// Western North America and the Aleutians
+		{20, -106, 34, -118, 41, -125, 49, -128, 58, -137, 60, -152, 53, -170, 51, 175},
+		// Kamchatka, Japan, Philippines and Indonesia
+		{56, 162, 44, 148, 36, 142, 24, 125, 13, 125, 2, 127, -8, 115, -6, 104, 5, 95},
+		// Tonga, Kermadec and New Zealand
+		{-15, -173, -24, -176, -35, 179, -42, 173, -47, 166},
+		// Mediterranean, Iran and the Himalaya
+		{37, -10, 38, 15, 39, 26, 38, 44, 30, 57, 35, 72, 28, 85, 27, 95},
+		// Mid-Atlantic ridge
+		{65, -18, 45, -28, 20, -45, 0, -20, -25, -13, -50, -5},
+		// East African rift
+		{12, 42, 5, 37, -5, 35, -15, 34}
+	};
+
+	// Anchor cities to scatter synthetic cities around: lat, lon, population in millions
+	private static final Object[][] METROS = {
+		{"Tokyo", "Japan", 35.7f, 139.7f, 37.4f},
+		{"Jakarta", "Indonesia", -6.2f, 106.8f, 10.6f},
+		{"Manila", "Philippines", 14.6f, 121.0f, 13.9f},
+		{"Lima", "Peru", -12.0f, -77.0f, 10.7f},
+		{"Santiago", "Chile", -33.4f, -70.6f, 6.8f},
+		{"Mexico City", "Mexico", 19.4f, -99.1f, 21.8f},
+		{"Los Angeles", "United States of America", 34.1f, -118.2f, 12.4f},
+		{"San Francisco", "United States of America", 37.8f, -122.4f, 3.3f},
+		{"Anchorage", "United States of America", 61.2f, -149.9f, 0.3f},
+		{"Istanbul", "Turkey", 41.0f, 29.0f, 15.1f},
+		{"Tehran", "Iran", 35.7f, 51.4f, 9.1f},
+		{"Kathmandu", "Nepal", 27.7f, 85.3f, 1.4f},
+		{"Delhi", "India", 28.6f, 77.2f, 29.4f},
+		{"Wellington", "New Zealand", -41.3f, 174.8f, 0.4f},
+		{"Nairobi", "Kenya", -1.3f, 36.8f, 4.4f},
+		{"Reykjavik", "Iceland", 64.1f, -21.9f, 0.1f},
+		{"Rome", "Italy", 41.9f, 12.5f, 4.3f},
+		{"London", "United Kingdom", 51.5f, -0.1f, 9.0f},
+		{"New York", "United States of America", 40.7f, -74.0f, 18.8f},
+		{"Sao Paulo", "Brazil", -23.6f, -46.6f, 21.7f},
+		{"Lagos", "Nigeria", 6.5f, 3.4f, 13.5f},
+		{"Cairo", "Egypt", 30.0f, 31.2f, 20.1f},
+		{"Beijing", "China", 39.9f, 116.4f, 19.6f},
+		{"Sydney", "Australia", -33.9f, 151.2f, 4.9f}
+	};
+
+	private long seed;
+	private Random random;
+
+	// Cumulative lengths of the boundary segments, for picking one by length
+	private double[] cumulative;
+	private int[][] segments;
+
+	/* Constructor */
+	public SyntheticCatalog(long seed) {
+		this.seed = seed;
+		int count = 0;
+		for (float[] line : BOUNDARIES) {
+			count += line.length / 2 - 1;
+		}
+		cumulative = new double[count];
+		segments = new int[count][];
+		int s = 0;
+		double total = 0;
+		for (int b = 0; b < BOUNDARIES.length; b++) {
+			float[] line = BOUNDARIES[b];
+			for (int p = 0; p + 3 < line.length; p += 2) {
+				total += Math.hypot(line[p + 2] - line[p], wrapLon(line[p + 3] - line[p + 1]));
+				cumulative[s] = total;
+				segments[s] = new int[] {b, p};
+				s++;
+			}
+		}
+	}
+
+	/* Writes an Atom feed with the given number of earthquakes
+	 * in the format read by ParseFeed.parseEarthquake */
+	public void writeQuakeFeed(String fileName, int count) throws IOException {
+		SimpleDateFormat iso = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSS'Z'", Locale.ROOT);
+		iso.setTimeZone(TimeZone.getTimeZone("UTC"));
+		// Each file has its own stream so one does not depend on the size of the other
+		random = new Random(seed);
+		BufferedWriter out = new BufferedWriter(new FileWriter(fileName), 1 << 16);
+		try {
+			out.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n");
+			out.write("<feed xmlns=\"http://www.w3.org/2005/Atom\" xmlns:georss=\"http://www.georss.org/georss\">\n");
+			out.write("<title>Synthetic M2.5+ Earthquakes</title>\n");
+			out.write("<updated>" + iso.format(new Date(FEED_TIME)) + "</updated>\n");
+			for (int i = 0; i < count; i++) {
+				float[] loc = nextBoundaryLocation();
+				float magnitude = nextMagnitude();
+				float depth = nextDepth();
+				long time = FEED_TIME - (long)(random.nextDouble() * 7 * DAY);
+				String title = String.format(Locale.ROOT, "M %.1f - Synthetic event %d", magnitude, i);
+
+				out.write("<entry><id>synthetic:" + i + "</id>");
+				out.write("<title>" + title + "</title>");
+				out.write("<updated>" + iso.format(new Date(time)) + "</updated>");
+				out.write(String.format(Locale.ROOT, "<georss:point>%.4f %.4f</georss:point>", loc[0], loc[1]));
+				out.write(String.format(Locale.ROOT, "<georss:elev>%.0f</georss:elev>", -depth * 1000));
+				out.write("<category label=\"Age\" term=\"" + age(FEED_TIME - time) + "\"/>");
+				out.write("<category label=\"Magnitude\" term=\"Magnitude " + (int)magnitude + "\"/>");
+				out.write("</entry>\n");
+			}
+			out.write("</feed>\n");
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/* Writes a GeoJSON city dataset in the format of city-data.json */
+	public void writeCities(String fileName, int count) throws IOException {
+		random = new Random(~seed);
+		BufferedWriter out = new BufferedWriter(new FileWriter(fileName), 1 << 16);
+		try {
+			out.write("{\"type\":\"FeatureCollection\",\"features\":[\n");
+			for (int i = 0; i < count; i++) {
+				Object[] metro = METROS[random.nextInt(METROS.length)];
+				// Cities thin out away from the anchor
+				double spread = 0.5 + 4 * random.nextDouble() * random.nextDouble();
+				float lat = clampLat((Float)metro[2] + (float)(random.nextGaussian() * spread));
+				float lon = (float)wrapLon((Float)metro[3] + random.nextGaussian() * spread);
+				// Pareto distributed population from 1000 people, capped at the anchor's
+				// Most cities fall in the smallest tier, as in real city lists
+				float population = (float)Math.min((Float)metro[4], 0.001 / Math.pow(random.nextDouble(), 0.8));
+				if (i > 0) {
+					out.write(",\n");
+				}
+				out.write(String.format(Locale.ROOT,
+						"{\"type\":\"Feature\",\"geometry\":{\"type\":\"Point\",\"coordinates\":[%.4f,%.4f]},"
+						+ "\"properties\":{\"name\":\"%s %d\",\"country\":\"%s\",\"population\":\"%.4f\"}}",
+						lon, lat, metro[0], i, metro[1], population));
+			}
+			out.write("\n]}\n");
+		}
+		finally {
+			out.close();
+		}
+	}
+
+	/* Returns a lat/lon near a plate boundary, picked in proportion to boundary length */
+	private float[] nextBoundaryLocation() {
+		double pick = random.nextDouble() * cumulative[cumulative.length - 1];
+		int s = 0;
+		while (cumulative[s] < pick) {
+			s++;
+		}
+		float[] line = BOUNDARIES[segments[s][0]];
+		int p = segments[s][1];
+		double t = random.nextDouble();
+		double lat = line[p] + t * (line[p + 2] - line[p]);
+		double lon = line[p + 1] + t * wrapLon(line[p + 3] - line[p + 1]);
+		// Most quakes sit close to the boundary
+		lat += random.nextGaussian() * 1.5;
+		lon += random.nextGaussian() * 1.5;
+		return new float[] {clampLat((float)lat), (float)wrapLon(lon)};
+	}
+
+	/* Returns a magnitude of 2.5 or more following Gutenberg-Richter with b = 1 */
+	private float nextMagnitude() {
+		double m = 2.5 - Math.log10(1 - random.nextDouble());
+		return (float)Math.min(9.5, Math.round(m * 10) / 10.0);
+	}
+
+	/* Returns a depth in km, mostly shallow with some intermediate and deep quakes */
+	private float nextDepth() {
+		double r = random.nextDouble();
+		if (r < 0.03) {
+			return EarthquakeMarker.THRESHOLD_DEEP + random.nextFloat() * 400;
+		}
+		else if (r < 0.15) {
+			return EarthquakeMarker.THRESHOLD_INTERMEDIATE
+					+ random.nextFloat() * (EarthquakeMarker.THRESHOLD_DEEP - EarthquakeMarker.THRESHOLD_INTERMEDIATE);
+		}
+		return (float)Math.min(EarthquakeMarker.THRESHOLD_INTERMEDIATE - 1, -20 * Math.log(1 - random.nextDouble()));
+	}
+
+	/* Returns the age category USGS uses for an event of the given age */
+	private static String age(long millis) {
+		if (millis < HOUR) {
+			return "Past Hour";
+		}
+		else if (millis < DAY) {
+			return "Past Day";
+		}
+		return "Past Week";
+	}
+
+	/* Wraps a longitude (or longitude difference) into -180..180 */
+	private static double wrapLon(double lon) {
+		while (lon > 180) {
+			lon -= 360;
+		}
+		while (lon < -180) {
+			lon += 360;
+		}
+		return lon;
+	}
+
+	/* Clamps a latitude into the range the map can show */
+	private static float clampLat(float lat) {
+		return Math.max(-85, Math.min(85, lat));
+	}
+
+	/* Writes a feed and a city dataset from the command line */
+	public static void main(String[] args) throws IOException {
+		if (args.length != 5) {
+			System.err.println("Usage: SyntheticCatalog quakes cities seed quakeFile cityFile");
+			return;
+		}
+		SyntheticCatalog catalog = new SyntheticCatalog(Long.parseLong(args[2]));
+		catalog.writeQuakeFeed(args[3], Integer.parseInt(args[0]));
+		catalog.writeCities(args[4], Integer.parseInt(args[1]));
+	}
+}
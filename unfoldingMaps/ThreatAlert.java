@@ -0,0 +1,95 @@
+package unfoldingMaps;
+
+import java.util.List;
+
+/** An alert listing the cities inside the threat circle of a new earthquake
+ *  @author ER
+ */
+public class ThreatAlert {
+
+	// The earthquake that raised the alert
+	private EarthquakeMarker quake;
+
+	// The cities inside its threat circle
+	private List<ThreatenedCity> cities;
+
+	// System.nanoTime() when the quake was ingested and when the alert was built
+	private long ingestNanos;
+	private long alertNanos;
+
+	/* Constructor */
+	public ThreatAlert(EarthquakeMarker quake, List<ThreatenedCity> cities, long ingestNanos, long alertNanos) {
+		this.quake = quake;
+		this.cities = cities;
+		this.ingestNanos = ingestNanos;
+		this.alertNanos = alertNanos;
+	}
+
+	/* Returns the earthquake */
+	public EarthquakeMarker getQuake() {
+		return quake;
+	}
+
+	/* Returns the threatened cities */
+	public List<ThreatenedCity> getCities() {
+		return cities;
+	}
+
+	/* Returns the time between ingesting the quake and building the alert,
+	 * before any sink has received it */
+	public long getLatencyNanos() {
+		return alertNanos - ingestNanos;
+	}
+
+	/* Returns the alert's string representation */
+	public String toString() {
+		StringBuilder sb = new StringBuilder();
+		sb.append("ALERT ").append(quake.getTitle())
+		  .append(" (").append(cities.size()).append(" cities)");
+		for (ThreatenedCity city : cities) {
+			sb.append("\n  ").append(city);
+		}
+		return sb.toString();
+	}
+
+	/** A city inside the threat circle and its distance from the quake */
+	public static class ThreatenedCity {
+		private String name;
+		private String country;
+		private float population;
+		private double distanceKm;
+
+		/* Constructor */
+		public ThreatenedCity(CityMarker city, double distanceKm) {
+			this.name = city.getCity();
+			this.country = city.getCountry();
+			this.population = city.getPopulation();
+			this.distanceKm = distanceKm;
+		}
+
+		/* Returns the city name */
+		public String getName() {
+			return name;
+		}
+
+		/* Returns the country name */
+		public String getCountry() {
+			return country;
+		}
+
+		/* Returns the population in millions */
+		public float getPopulation() {
+			return population;
+		}
+
+		/* Returns the distance from the quake in km */
+		public double getDistanceKm() {
+			return distanceKm;
+		}
+
+		/* Returns the city's string representation */
+		public String toString() {
+			return String.format("%s, %s: %.0f km, Pop: %s Million", name, country, distanceKm, population);
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package unfoldingMaps;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import de.fhpotsdam.unfolding.marker.Marker;
+
+/** Event driven alert stage for newly ingested earthquakes
+ *  Each submitted quake is checked against the city index on a worker
+ *  thread and an alert listing the cities in its threat circle is sent
+ *  to every sink. Quakes are drained from the queue in batches so that
+ *  bursts of aftershocks do not pay for a wake up each.
+ *  @author ER
+ */
+public class ThreatAlertPipeline {
+
+	// Largest number of quakes taken from the queue at once
+	private static final int BATCH_SIZE = 256;
+
+	private CityIndex cityIndex;
+	private List<AlertSink> sinks = new CopyOnWriteArrayList<AlertSink>();
+	private BlockingQueue<Ingested> queue = new LinkedBlockingQueue<Ingested>();
+	private LatencyHistogram latency = new LatencyHistogram();
+
+	private Thread worker;
+	private volatile boolean running;
+
+	/* Constructor */
+	public ThreatAlertPipeline(CityIndex cityIndex) {
+		this.cityIndex = cityIndex;
+	}
+
+	/* Adds a sink that will receive every alert */
+	public void addSink(AlertSink sink) {
+		sinks.add(sink);
+	}
+
+	/* Returns the histogram of latencies from ingesting a quake
+	 * until every sink has received its alert */
+	public LatencyHistogram getLatency() {
+		return latency;
+	}
+
+	/* Starts the worker thread */
+	public synchronized void start() {
+		if (running) {
+			return;
+		}
+		running = true;
+		worker = new Thread(new Runnable() {
+			public void run() {
+				drain();
+			}
+		}, "threat-alerts");
+		worker.setDaemon(true);
+		worker.start();
+	}
+
+	/* Stops the worker thread once the queued quakes have been alerted
+	 * and closes the sinks that hold a file or other resource */
+	public synchronized void stop() throws InterruptedException {
+		if (!running) {
+			return;
+		}
+		running = false;
+		worker.join();
+		for (AlertSink sink : sinks) {
+			if (sink instanceof Closeable) {
+				try {
+					((Closeable)sink).close();
+				}
+				catch (IOException e) {
+					System.err.println("Could not close alert sink: " + e.getMessage());
+				}
+			}
+		}
+	}
+
+	/* Queues a newly ingested quake, recording the ingest time */
+	public void submit(EarthquakeMarker quake) {
+		queue.add(new Ingested(quake, System.nanoTime()));
+	}
+
+	/* Worker loop, runs until stopped and the queue is empty */
+	private void drain() {
+		List<Ingested> batch = new ArrayList<Ingested>(BATCH_SIZE);
+		while (running || !queue.isEmpty()) {
+			try {
+				Ingested first = queue.poll(100, TimeUnit.MILLISECONDS);
+				if (first == null) {
+					continue;
+				}
+				batch.add(first);
+				queue.drainTo(batch, BATCH_SIZE - 1);
+			}
+			catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+			for (Ingested in : batch) {
+				deliver(in);
+			}
+			batch.clear();
+		}
+	}
+	
+	/* Builds the alert for one quake and sends it to every sink
+	 * A bad quake only loses its own alert and a bad sink only its own call */
+	private void deliver(Ingested in) {
+		ThreatAlert alert;
+		try {
+			alert = buildAlert(in);
+		}
+		catch (RuntimeException e) {
+			System.err.println("Threat alert failed for " + in.quake + ": " + e);
+			return;
+		}
+		for (AlertSink sink : sinks) {
+			try {
+				sink.alert(alert);
+			}
+			catch (RuntimeException e) {
+				System.err.println("Alert sink " + sink + " failed: " + e);
+			}
+		}
+		// Ingest to alert latency, once every sink has the alert
+		latency.record(System.nanoTime() - in.nanos);
+	}
+
+	/* Finds the cities within the quake's threat circle */
+	private ThreatAlert buildAlert(Ingested in) {
+		List<Marker> cityMarkers = cityIndex.getCityMarkers();
+		int[] found = cityIndex.getCitiesWithin(in.quake.getLocation(), in.quake.threatCircle());
+		List<ThreatAlert.ThreatenedCity> cities = new ArrayList<ThreatAlert.ThreatenedCity>(found.length);
+		for (int i : found) {
+			CityMarker city = (CityMarker)cityMarkers.get(i);
+			cities.add(new ThreatAlert.ThreatenedCity(city, city.getDistanceTo(in.quake.getLocation())));
+		}
+		return new ThreatAlert(in.quake, cities, in.nanos, System.nanoTime());
+	}
+
+	/** A queued quake and the time it was ingested */
+	private static class Ingested {
+		private EarthquakeMarker quake;
+		private long nanos;
+
+		Ingested(EarthquakeMarker quake, long nanos) {
+			this.quake = quake;
+			this.nanos = nanos;
+		}
+	}
+}